@@ -0,0 +1,242 @@
+/*
+** File: BlockCompressedOutputStream.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip data as a series of independent gzip members of at most BLOCK_SIZE uncompressed bytes each, laid out
+ * as in the BGZF format: every member carries a "BC" extra field holding its compressed size, and an empty member
+ * marks the end of the data.  Concatenated gzip members are read as a single stream by gunzip and by
+ * java.util.zip.GZIPInputStream.  Because the members are independent they are compressed by a pool of threads,
+ * while the calling thread only copies bytes and writes the finished members in order, so compression keeps up with
+ * data produced by several threads.  Instances are not thread safe.
+ * @author Peter J. Ersts
+ *
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+	/** \brief Largest number of uncompressed bytes in a member, the one used by BGZF so a member never exceeds 64 KB */
+	public static final int BLOCK_SIZE = 65280;
+	/** \brief Length of the gzip header of a member, including the BC extra field */
+	private static final int HEADER_LENGTH = 18;
+	/** \brief Length of the gzip trailer of a member, CRC32 and uncompressed size */
+	private static final int TRAILER_LENGTH = 8;
+	/** \brief The empty member written at the end of the data */
+	private static final byte[] END_OF_FILE = {
+		0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	private final OutputStream out;
+	private final int level;
+	private final boolean endOfFile;
+	/** \brief Threads compressing the members, null to compress them on the calling thread */
+	private final ExecutorService compressors;
+	/** \brief Members being compressed, in order */
+	private final ArrayDeque<Future<byte[]>> pending;
+	private final int maximumPending;
+	/** \brief Deflater of each compressing thread, or of the calling thread */
+	private final ThreadLocal<Deflater> deflaters;
+	private byte[] block;
+	private int blockLength;
+	private boolean closed;
+
+	/**
+	 * Constructor for a stream compressed with the default level and terminated by the end of file member
+	 * @param theOut			Destination of the compressed data
+	 * @param theThreads		Number of threads compressing members, 1 to compress them on the calling thread
+	 */
+	public BlockCompressedOutputStream(OutputStream theOut, int theThreads) {
+		this(theOut, theThreads, Deflater.DEFAULT_COMPRESSION, true);
+	}
+
+	/**
+	 * Constructor
+	 * @param theOut			Destination of the compressed data
+	 * @param theThreads		Number of threads compressing members, 1 to compress them on the calling thread
+	 * @param theLevel			Compression level, see Deflater
+	 * @param theEndOfFile		True to write the end of file member when the stream is closed, false when more members will be appended to the destination
+	 */
+	public BlockCompressedOutputStream(OutputStream theOut, int theThreads, int theLevel, boolean theEndOfFile) {
+		out = theOut;
+		level = theLevel;
+		endOfFile = theEndOfFile;
+		compressors = theThreads > 1 ? Executors.newFixedThreadPool(theThreads) : null;
+		pending = new ArrayDeque<Future<byte[]>>();
+		maximumPending = 2*Math.max(1, theThreads);
+		deflaters = new ThreadLocal<Deflater>() {
+			protected Deflater initialValue() {
+				return new Deflater(level, true);
+			}
+		};
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+		closed = false;
+	}
+
+	/**
+	 * Writes the end of file member, e.g., after concatenating members written by streams created without it
+	 * @param theOut			Destination of the compressed data
+	 * @throws IOException
+	 */
+	public static void writeEndOfFile(OutputStream theOut) throws IOException {
+		theOut.write(END_OF_FILE);
+	}
+
+	public void write(int b) throws IOException {
+		if(blockLength == BLOCK_SIZE)
+			submit();
+		block[blockLength++] = (byte)b;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(blockLength == BLOCK_SIZE)
+				submit();
+			int count = Math.min(len, BLOCK_SIZE - blockLength);
+			System.arraycopy(b, off, block, blockLength, count);
+			blockLength += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Compresses the bytes written so far, even if they do not fill a member, and writes all members
+	 */
+	public void flush() throws IOException {
+		if(blockLength > 0)
+			submit();
+		while(!pending.isEmpty())
+			writeMember();
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if(closed)
+			return;
+		closed = true;
+		try {
+			flush();
+			if(endOfFile)
+				writeEndOfFile(out);
+			out.close();
+		}
+		finally {
+			if(compressors != null)
+				compressors.shutdownNow();
+			else
+				deflaters.get().end();
+		}
+	}
+
+	/**
+	 * Hands the current block to a compressing thread, waiting for the oldest member when too many are pending
+	 */
+	private void submit() throws IOException {
+		final byte[] data = block;
+		final int length = blockLength;
+		if(compressors == null)
+			out.write(compress(data, length));
+		else {
+			if(pending.size() >= maximumPending)
+				writeMember();
+			pending.add(compressors.submit(new Callable<byte[]>() {
+				public byte[] call() {
+					return compress(data, length);
+				}
+			}));
+			block = new byte[BLOCK_SIZE];
+		}
+		blockLength = 0;
+	}
+
+	/**
+	 * Waits for the oldest pending member and writes it
+	 */
+	private void writeMember() throws IOException {
+		try {
+			out.write(pending.remove().get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		}
+		catch (ExecutionException e) {
+			if(e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+			throw new IOException("A problem was encountered while compressing", e.getCause());
+		}
+	}
+
+	/**
+	 * @return					A complete gzip member holding the first length bytes of data
+	 */
+	private byte[] compress(byte[] data, int length) {
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		/*
+		 * Deflate never expands data by more than a few bytes per stored block, see zlib's deflateBound
+		 */
+		byte[] member = new byte[HEADER_LENGTH + length + (length >> 12) + (length >> 14) + 64 + TRAILER_LENGTH];
+		int size = HEADER_LENGTH;
+		while(!deflater.finished())
+			size += deflater.deflate(member, size, member.length - TRAILER_LENGTH - size);
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		long checksum = crc.getValue();
+
+		member[0] = 0x1f;
+		member[1] = (byte)0x8b;
+		member[2] = 8;						/* deflate */
+		member[3] = 4;						/* FEXTRA */
+		member[9] = (byte)0xff;				/* unknown operating system */
+		member[10] = 6;						/* length of the extra field */
+		member[12] = 'B';
+		member[13] = 'C';
+		member[14] = 2;						/* length of the BC subfield */
+		int blockSize = size + TRAILER_LENGTH - 1;
+		member[16] = (byte)blockSize;
+		member[17] = (byte)(blockSize >>> 8);
+		for(int x = 0; x < 4; x++) {
+			member[size + x] = (byte)(checksum >>> (8*x));
+			member[size + 4 + x] = (byte)(length >>> (8*x));
+		}
+		size += TRAILER_LENGTH;
+		return size == member.length ? member : Arrays.copyOf(member, size);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+** File: FixedPrecisionFormatter.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.core;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formats doubles with a fixed number of decimals directly into a char array.  The output is identical to
+ * that of a DecimalFormat using the pattern "0.00" (or "0.000000000", etc.) for the default locale, including its
+ * HALF_EVEN rounding, but no objects are created except for the rare values that are passed on to DecimalFormat.
+ * Like DecimalFormat, instances are not thread safe.
+ * @author Peter J. Ersts
+ *
+ */
+public class FixedPrecisionFormatter {
+	/** \brief Largest scaled value formatted without DecimalFormat, 2^52 so that the fraction of the scaled value is exact */
+	private static final double FAST_PATH_LIMIT = 4503599627370496.0;
+	/** \brief Most characters a finite double can produce without its sign, 309 integer digits and a separator */
+	private static final int MAXIMUM_FINITE_LENGTH = 310;
+
+	private final int decimals;
+	private final long power;
+	private final double scale;
+	private final char zeroDigit;
+	private final char decimalSeparator;
+	/** \brief Characters that precede negative numbers, usually just the minus sign */
+	private final char[] negativePrefix;
+	/** \brief DecimalFormat with the same pattern, used for values that can not safely be formatted directly */
+	private final DecimalFormat fallback;
+	private final int maximumLength;
+
+	/**
+	 * Constructor
+	 * @param theDecimals		Number of decimals, from 1 to 18
+	 */
+	public FixedPrecisionFormatter(int theDecimals) {
+		if(theDecimals < 1 || theDecimals > 18)
+			throw new IllegalArgumentException("Number of decimals must be between 1 and 18");
+		decimals = theDecimals;
+		long p = 1;
+		StringBuilder pattern = new StringBuilder("0.");
+		for(int x = 0; x < theDecimals; x++) {
+			p *= 10;
+			pattern.append('0');
+		}
+		power = p;
+		scale = p;
+		fallback = new DecimalFormat(pattern.toString());
+		DecimalFormatSymbols symbols = fallback.getDecimalFormatSymbols();
+		zeroDigit = symbols.getZeroDigit();
+		decimalSeparator = symbols.getDecimalSeparator();
+		negativePrefix = fallback.getNegativePrefix().toCharArray();
+		maximumLength = negativePrefix.length + Math.max(MAXIMUM_FINITE_LENGTH + decimals, symbols.getNaN().length() + symbols.getInfinity().length());
+	}
+
+	/**
+	 * @return					The number of decimals
+	 */
+	public int decimals() {
+		return decimals;
+	}
+
+	/**
+	 * @return					The most characters a single call to format can write
+	 */
+	public int maximumLength() {
+		return maximumLength;
+	}
+
+	/**
+	 * Writes the formatted value into buffer.
+	 * @param value				The value to format
+	 * @param buffer			Destination, must have room for maximumLength() characters after offset
+	 * @param offset			Index in buffer of the first character
+	 * @return					Index in buffer following the last character written
+	 */
+	public int format(double value, char[] buffer, int offset) {
+		/*
+		 * DecimalFormat rounds the shortest decimal representation of the value (Double.toString's digits), which is
+		 * within half an ulp of the value, and value*scale adds another half ulp of error.  Unless the fraction of the
+		 * scaled value is within a few ulps of one half, or the value has more significant digits than a long holds,
+		 * both round in the same direction.  The few remaining values are handed to DecimalFormat itself.
+		 */
+		double magnitude = Math.abs(value);
+		double scaled = magnitude*scale;
+		if(!(scaled < FAST_PATH_LIMIT))
+			return copy(fallback.format(value), buffer, offset);
+		double floor = Math.floor(scaled);
+		double fraction = scaled - floor;
+		if(Math.abs(fraction - 0.5) <= 4*Math.ulp(scaled))
+			return copy(fallback.format(value), buffer, offset);
+		long units = (long)floor;
+		if(fraction > 0.5)
+			units++;
+
+		/*
+		 * Like DecimalFormat a negative value, including -0.0, keeps its sign even if it rounds to zero
+		 */
+		if(value < 0.0 || (value == 0.0 && 1.0/value < 0.0)) {
+			System.arraycopy(negativePrefix, 0, buffer, offset, negativePrefix.length);
+			offset += negativePrefix.length;
+		}
+
+		long integerPart = units/power;
+		long fractionPart = units - integerPart*power;
+
+		/*
+		 * Integer digits, written backwards into place
+		 */
+		int digits = 1;
+		for(long x = integerPart; x >= 10; x /= 10)
+			digits++;
+		int position = offset + digits;
+		do {
+			buffer[--position] = (char)(zeroDigit + (int)(integerPart % 10));
+			integerPart /= 10;
+		} while(integerPart > 0);
+		offset += digits;
+
+		buffer[offset] = decimalSeparator;
+		position = offset + decimals;
+		for(int x = 0; x < decimals; x++) {
+			buffer[position--] = (char)(zeroDigit + (int)(fractionPart % 10));
+			fractionPart /= 10;
+		}
+		return offset + decimals + 1;
+	}
+
+	/**
+	 * Copies a number formatted by the fallback DecimalFormat
+	 */
+	private int copy(String text, char[] buffer, int offset) {
+		text.getChars(0, text.length(), buffer, offset);
+		return offset + text.length();
+	}
+}
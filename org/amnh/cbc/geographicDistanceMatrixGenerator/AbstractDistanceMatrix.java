@@ -0,0 +1,62 @@
+/*
+** File: AbstractDistanceMatrix.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base of the DistanceMatrix implementations: the index of the labels, built the first time a label is looked up,
+ * and a getRow reading the distances one by one.
+ * @author Peter J. Ersts
+ *
+ */
+public abstract class AbstractDistanceMatrix implements DistanceMatrix {
+	/** \brief Index of the first location of each label, built on first use */
+	private volatile Map<String, Integer> indices;
+
+	public int indexOf(String label) {
+		Map<String, Integer> result = indices;
+		if(result == null) {
+			synchronized(this) {
+				result = indices;
+				if(result == null) {
+					result = new HashMap<String, Integer>();
+					for(int x = size() - 1; x >= 0; x--)
+						result.put(label(x), x);
+					indices = result;
+				}
+			}
+		}
+		Integer index = result.get(label);
+		return index == null ? -1 : index;
+	}
+
+	public void getRow(int row, double[] distances) {
+		int size = size();
+		for(int x = 0; x < size; x++)
+			distances[x] = get(row, x);
+	}
+}
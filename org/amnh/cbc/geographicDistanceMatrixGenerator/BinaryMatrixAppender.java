@@ -0,0 +1,191 @@
+/*
+** File: BinaryMatrixAppender.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+
+import org.amnh.cbc.geospatial.DistanceUnit;
+import org.amnh.cbc.geospatial.SphericalFunctionEngine;
+
+/*
+ * Appends locations to a binary distance matrix file, see DistanceMatrixFile, computing only the distances that
+ * involve the new locations.  With N locations in the file and K new ones:
+ *
+ * - a condensed matrix keeps its N(N-1)/2 distances where they are, the K new rows are written after them, over the
+ *   old site table, followed by the site table of all N+K locations;
+ * - a full matrix is widened in place: the K new rows are written after the old distances, then the old rows are
+ *   moved, from the last to the first, to their new offsets, each followed by its K new columns.  A row never moves
+ *   backwards, so a row is never overwritten before it has been read.
+ *
+ * The new columns of the old rows are the new rows transposed, the central angle of a pair does not depend on the
+ * order of the points, so they are computed once by a cross MatrixBand of the old rows and the new locations.  The
+ * distances use the radius and the units stored in the file, and the result is identical to a file written by
+ * GeographicDistanceMatrixGeneratorEngine.exportBinaryMatrix for all N+K locations.  The header is written last, but
+ * the file is not usable if the append is interrupted.
+ */
+class BinaryMatrixAppender {
+	/** \brief Size, in bytes, of the buffer used when writing distances */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final LocationTable additions;
+	private final int parallelism;
+
+	/**
+	 * Constructor
+	 * @param theAdditions		The locations to append
+	 * @param theParallelism	Number of threads computing distances
+	 */
+	BinaryMatrixAppender(LocationTable theAdditions, int theParallelism) {
+		additions = theAdditions;
+		parallelism = Math.max(1, theParallelism);
+	}
+
+	/**
+	 * Appends the locations to a file
+	 * @param theFile			A binary distance matrix file
+	 * @param progress			Receiver of the number of rows written, may be null
+	 * @throws IOException		If the file can not be read or written, is not a binary distance matrix or its units are not known
+	 */
+	void append(File theFile, ProgressReporter progress) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(theFile, "rw");
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			FileChannel channel = file.getChannel();
+			DistanceMatrixFile.Header header = DistanceMatrixFile.readHeader(channel, theFile.getPath());
+			DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(header.units);
+			if(distanceUnit == null)
+				throw new IOException("Unknown units [" + header.units + "] in " + theFile.getPath());
+			if(header.dataOffset != DistanceMatrixFile.HEADER_SIZE)
+				throw new IOException("Unsupported binary distance matrix layout: " + theFile.getPath());
+			double scale = new SphericalFunctionEngine(header.spheroidRadius).unitScale(distanceUnit);
+			LocationTable existing = DistanceMatrixFile.readSiteTable(channel, header);
+			LocationTable locations = LocationTable.concatenate(existing, additions);
+			int oldSize = existing.size();
+			int size = locations.size();
+			boolean condensed = header.isCondensed();
+			boolean singlePrecision = header.isSinglePrecision();
+			int valueSize = singlePrecision ? 4 : 8;
+			MatrixFormat format = condensed ? MatrixFormat.LOWER_TRIANGULAR : MatrixFormat.FULL_MATRIX;
+			if(progress != null) {
+				progress.setOverallMinimum( 0 );
+				progress.setOverallMaximum( size - 1 );
+				progress.setOverallValue( 0 );
+			}
+
+			/*
+			 * The new rows, after the old distances
+			 */
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			long position = header.dataOffset + (condensed ? DistanceMatrixFile.dataLength(oldSize, header.flags) : (long)oldSize*size*valueSize);
+			MatrixBand band = new MatrixBand(locations, format, scale, 0);
+			for(int bandStart = oldSize; bandStart < size; bandStart += MatrixBand.TILE_SIZE) {
+				int bandEnd = Math.min(size, bandStart + MatrixBand.TILE_SIZE);
+				band.computeValues(bandStart, bandEnd, pool);
+				for(int y = bandStart; y < bandEnd; y++) {
+					int rowLength = format.rowLength(size, y);
+					for(int x = 0; x < rowLength; x++) {
+						if(buffer.remaining() < 8)
+							position = drain(buffer, channel, position);
+						put(buffer, band.value(y, x), singlePrecision);
+					}
+				}
+				if(progress != null)
+					progress.setOverallValue( bandEnd - oldSize - 1 );
+			}
+			drain(buffer, channel, position);
+
+			/*
+			 * Widen the old rows of a full matrix, from the last one
+			 */
+			if(!condensed && oldSize > 0 && size > oldSize) {
+				ByteBuffer row = ByteBuffer.allocateDirect(oldSize*valueSize).order(ByteOrder.LITTLE_ENDIAN);
+				MatrixBand columns = new MatrixBand(existing, additions, MatrixFormat.FULL_MATRIX, scale, 0, MatrixBand.TILE_SIZE);
+				for(int bandEnd = oldSize; bandEnd > 0; bandEnd -= MatrixBand.TILE_SIZE) {
+					int bandStart = Math.max(0, bandEnd - MatrixBand.TILE_SIZE);
+					columns.computeValues(bandStart, bandEnd, pool);
+					for(int y = bandEnd - 1; y >= bandStart; y--) {
+						row.clear();
+						long source = header.dataOffset + (long)y*oldSize*valueSize;
+						while(row.hasRemaining())
+							if(channel.read(row, source + row.position()) < 0)
+								throw new IOException("Binary distance matrix file is truncated: " + theFile.getPath());
+						row.flip();
+						long target = header.dataOffset + (long)y*size*valueSize;
+						while(row.hasRemaining())
+							target += channel.write(row, target);
+						buffer.clear();
+						for(int x = 0; x < additions.size(); x++) {
+							if(buffer.remaining() < 8)
+								target = drain(buffer, channel, target);
+							put(buffer, columns.value(y, x), singlePrecision);
+						}
+						drain(buffer, channel, target);
+					}
+					if(progress != null)
+						progress.setOverallValue( size - bandStart - 1 );
+				}
+			}
+
+			/*
+			 * Site table then header
+			 */
+			long siteTableOffset = header.dataOffset + DistanceMatrixFile.dataLength(size, header.flags);
+			channel.position(siteTableOffset);
+			DistanceMatrixFile.writeSiteTable(channel, locations);
+			channel.truncate(channel.position());
+			DistanceMatrixFile.writeHeader(channel, header.flags, size, header.spheroidRadius, header.units, siteTableOffset);
+		}
+		finally {
+			if(pool != null)
+				pool.shutdown();
+			file.close();
+		}
+	}
+
+	private static void put(ByteBuffer buffer, double value, boolean singlePrecision) {
+		if(singlePrecision)
+			buffer.putFloat((float)value);
+		else
+			buffer.putDouble(value);
+	}
+
+	/**
+	 * Writes the contents of a buffer at a position of a channel and clears the buffer
+	 * @return					The position following the bytes written
+	 */
+	private static long drain(ByteBuffer buffer, FileChannel channel, long position) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining())
+			position += channel.write(buffer, position);
+		buffer.clear();
+		return position;
+	}
+}
@@ -0,0 +1,470 @@
+/*
+** File: ClusterTree.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.amnh.cbc.geospatial.SphericalFunctionEngine;
+
+/**
+ * Average linkage (UPGMA) hierarchical clustering of the locations of a distance matrix.  The two closest clusters are
+ * merged until a single one remains, the distance between two clusters being the mean of the distances between their
+ * locations.  The merges are found with the nearest neighbour chain algorithm: a chain of clusters, each the nearest
+ * neighbour of the previous one, is grown until two clusters are each other's nearest neighbours, which are merged.
+ * Average linkage never brings a merged cluster closer to the others than the closer of its two parts, so the rest of
+ * the chain stays valid and the tree is the one of the classic algorithm, up to ties, in O(N^2) time.  The distances
+ * are held in single precision in the condensed layout of GeographicDistanceMatrixGeneratorEngine.condensedMatrix,
+ * 2N(N-1) bytes, about 800 MB for 20,000 locations, and overwritten by the distances between the clusters as they are
+ * merged.
+ *
+ * Locations sharing their coordinates are at distance 0 and merged first, so when built from a LocationTable the
+ * distances are only held between its unique sites, each weighted by its number of locations, see SiteIndex.
+ *
+ * The nodes of the tree are numbered as the locations, 0 to size() - 1, for the leaves, then size() + k for merge k.
+ * Locations are left out of the tree until no distance between the others is missing (NaN), the location with the
+ * most missing distances first, e.g., a location whose coordinates are not valid.  Instances can be shared among
+ * threads.
+ * @author Peter J. Ersts
+ *
+ */
+public class ClusterTree {
+	/** \brief Characters that can not appear in a Newick label without quotes */
+	private static final String NEWICK_SPECIAL = "()[]':;,";
+	/** \brief Actions of the Newick writer on the nodes of its stack */
+	private static final int OPEN = 0;
+	private static final int COMMA = 1;
+	private static final int CLOSE = 2;
+
+	/** \brief Number of locations */
+	private final int size;
+	/** \brief True for each location in the tree */
+	private final boolean[] kept;
+	private final int leafCount;
+	/** \brief Nodes merged by each merge */
+	private final int[] left;
+	private final int[] right;
+	/** \brief Height of each merge, never lower than the heights of the merges below it */
+	private final double[] heights;
+	/** \brief Number of merges found so far while building the tree */
+	private int mergeCount;
+
+	/**
+	 * Constructor clustering the locations of a condensed matrix
+	 * @param theDistances		Condensed distances, the distance between locations i and j, j < i, at index i(i-1)/2 + j
+	 * @param theSize			Number of locations
+	 * @throws IllegalArgumentException	If the matrix does not hold theSize(theSize-1)/2 distances
+	 */
+	public ClusterTree(double[] theDistances, int theSize) {
+		if(theDistances.length != StoredDistanceMatrix.pairCount(theSize))
+			throw new IllegalArgumentException("A condensed matrix of " + theSize + " locations must hold " + StoredDistanceMatrix.pairCount(theSize) + " distances");
+		size = theSize;
+
+		kept = StoredDistanceMatrix.completeLocations(size, null, theDistances);
+		int keptCount = 0;
+		for(int i = 0; i < size; i++)
+			if(kept[i])
+				keptCount++;
+		leafCount = keptCount;
+		left = new int[Math.max(0, leafCount - 1)];
+		right = new int[left.length];
+		heights = new double[left.length];
+
+		int[] nodes = new int[leafCount];
+		int[] weights = new int[leafCount];
+		float[] distances = new float[(int)StoredDistanceMatrix.pairCount(leafCount)];
+		for(int i = 0, k = 0, index = 0; i < size; i++) {
+			if(!kept[i])
+				continue;
+			int rowStart = (int)StoredDistanceMatrix.pairCount(i);
+			for(int j = 0; j < i; j++)
+				if(kept[j])
+					distances[index++] = (float)theDistances[rowStart + j];
+			nodes[k] = i;
+			weights[k++] = 1;
+		}
+		link(distances, nodes, weights);
+	}
+
+	/**
+	 * Constructor clustering the valid locations of a table, the distances between its sites are computed by the
+	 * threads of a ForkJoinPool
+	 * @param theLocations		The locations
+	 * @param theScale			Radians to unit multiplier of the distances, see SphericalFunctionEngine.unitScale
+	 * @param theParallelism	Number of threads computing the distances
+	 */
+	ClusterTree(LocationTable theLocations, double theScale, int theParallelism) {
+		size = theLocations.size();
+		SiteIndex sites = theLocations.sites();
+		kept = new boolean[size];
+		for(int i = 0; i < size; i++)
+			kept[i] = sites.site(i) >= 0;
+		leafCount = theLocations.validCount();
+		left = new int[Math.max(0, leafCount - 1)];
+		right = new int[left.length];
+		heights = new double[left.length];
+
+		/*
+		 * Merge the locations of each site at height 0, the site is then one node weighted by its locations
+		 */
+		int siteCount = sites.count();
+		int[] nodes = new int[siteCount];
+		int[] weights = new int[siteCount];
+		for(int i = 0; i < size; i++) {
+			int site = sites.site(i);
+			if(site < 0)
+				continue;
+			if(weights[site] == 0)
+				nodes[site] = i;
+			else
+				nodes[site] = merge(nodes[site], i, 0.0);
+			weights[site]++;
+		}
+
+		float[] distances = new float[(int)StoredDistanceMatrix.pairCount(siteCount)];
+		SiteDistanceTask task = new SiteDistanceTask(sites, theScale, distances, 1, siteCount);
+		if(theParallelism > 1) {
+			ForkJoinPool pool = new ForkJoinPool(theParallelism);
+			try {
+				pool.invoke(task);
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+		else
+			task.compute();
+		link(distances, nodes, weights);
+	}
+
+	/**
+	 * @param siteCount			Number of unique sites
+	 * @return					True if the distances between the sites fit in a single array
+	 */
+	static boolean fits(int siteCount) {
+		return StoredDistanceMatrix.pairCount(siteCount) <= Integer.MAX_VALUE - 8;
+	}
+
+	/**
+	 * Records a merge
+	 * @return					The node of the merge
+	 */
+	private int merge(int theLeft, int theRight, double theHeight) {
+		left[mergeCount] = theLeft;
+		right[mergeCount] = theRight;
+		heights[mergeCount] = Math.max(theHeight, Math.max(height(theLeft), height(theRight)));
+		return size + mergeCount++;
+	}
+
+	/**
+	 * Merges clusters with the nearest neighbour chain algorithm until a single one remains
+	 * @param distances			Condensed distances between the clusters, overwritten
+	 * @param nodes				Node of each cluster
+	 * @param weights			Number of locations of each cluster
+	 */
+	private void link(float[] distances, int[] nodes, int[] weights) {
+		int count = nodes.length;
+		int[] rowStarts = new int[count];
+		for(int x = 0; x < count; x++)
+			rowStarts[x] = (int)StoredDistanceMatrix.pairCount(x);
+		/*
+		 * The clusters not merged yet, and the position of each in the list, a merged cluster is swapped with the last
+		 */
+		int[] active = new int[count];
+		int[] positions = new int[count];
+		for(int x = 0; x < count; x++) {
+			active[x] = x;
+			positions[x] = x;
+		}
+		int activeCount = count;
+		int[] chain = new int[count];
+		int chainLength = 0;
+
+		while(activeCount > 1) {
+			if(chainLength == 0)
+				chain[chainLength++] = active[0];
+			int a, b;
+			while(true) {
+				/*
+				 * Find the nearest neighbour of the end of the chain, the previous cluster of the chain on ties
+				 */
+				a = chain[chainLength - 1];
+				int previous = chainLength > 1 ? chain[chainLength - 2] : -1;
+				b = previous;
+				float nearest = previous >= 0 ? distances[index(rowStarts, a, previous)] : Float.POSITIVE_INFINITY;
+				for(int x = 0; x < activeCount; x++) {
+					int other = active[x];
+					if(other == a)
+						continue;
+					float distance = other < a ? distances[rowStarts[a] + other] : distances[rowStarts[other] + a];
+					if(distance < nearest || b < 0) {
+						nearest = distance;
+						b = other;
+					}
+				}
+				if(b == previous)
+					break;
+				chain[chainLength++] = b;
+			}
+
+			/*
+			 * Merge a into b, the distance to the merged cluster is the mean of the distances to the locations of both
+			 */
+			chainLength -= 2;
+			double aWeight = weights[a], bWeight = weights[b];
+			double total = aWeight + bWeight;
+			nodes[b] = merge(nodes[a], nodes[b], distances[index(rowStarts, a, b)]);
+			weights[b] += weights[a];
+			int last = active[--activeCount];
+			active[positions[a]] = last;
+			positions[last] = positions[a];
+			for(int x = 0; x < activeCount; x++) {
+				int other = active[x];
+				if(other == b)
+					continue;
+				int toB = index(rowStarts, b, other);
+				distances[toB] = (float)((aWeight*distances[index(rowStarts, a, other)] + bWeight*distances[toB]) / total);
+			}
+		}
+	}
+
+	/**
+	 * @return					Index of the distance between clusters i and j, i != j, in the condensed distances
+	 */
+	private static int index(int[] rowStarts, int i, int j) {
+		return i > j ? rowStarts[i] + j : rowStarts[j] + i;
+	}
+
+	/**
+	 * @return					Number of locations, leaves or not
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return					Number of locations in the tree
+	 */
+	public int leafCount() {
+		return leafCount;
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					True if the location is a leaf of the tree, false if it was left out
+	 */
+	public boolean isLeaf(int index) {
+		return kept[index];
+	}
+
+	/**
+	 * @return					Number of merges, one less than the number of leaves
+	 */
+	public int mergeCount() {
+		return heights.length;
+	}
+
+	/**
+	 * @return					The root node, -1 if the tree is empty
+	 */
+	public int root() {
+		if(leafCount == 0)
+			return -1;
+		if(heights.length > 0)
+			return size + heights.length - 1;
+		for(int x = 0; x < size; x++)
+			if(kept[x])
+				return x;
+		return -1;
+	}
+
+	/**
+	 * @param node				A merge node, size() + k for merge k
+	 * @return					The first of the two nodes merged
+	 */
+	public int left(int node) {
+		return left[node - size];
+	}
+
+	/**
+	 * @param node				A merge node, size() + k for merge k
+	 * @return					The second of the two nodes merged
+	 */
+	public int right(int node) {
+		return right[node - size];
+	}
+
+	/**
+	 * @param node				A node
+	 * @return					The mean distance between the locations of the two nodes merged, 0 for a leaf
+	 */
+	public double height(int node) {
+		return node < size ? 0.0 : heights[node - size];
+	}
+
+	/**
+	 * Cuts the tree at a height: the locations whose nodes are merged at or below the height share a cluster.  The
+	 * clusters are numbered from 1 in the order of their first location.
+	 * @param theHeight			The height
+	 * @return					The cluster of each location, 0 for a location left out of the tree
+	 */
+	public int[] clusters(double theHeight) {
+		int nodeCount = size + heights.length;
+		int[] parents = new int[nodeCount];
+		Arrays.fill(parents, -1);
+		for(int k = 0; k < heights.length; k++) {
+			parents[left[k]] = size + k;
+			parents[right[k]] = size + k;
+		}
+		/*
+		 * The top of each node is the highest node above it merged at or below the height; a parent is numbered after
+		 * its children, so its top is known first when going down the numbers
+		 */
+		int[] tops = new int[nodeCount];
+		for(int node = nodeCount - 1; node >= 0; node--) {
+			int parent = parents[node];
+			tops[node] = parent >= 0 && heights[parent - size] <= theHeight ? tops[parent] : node;
+		}
+		int[] numbers = new int[nodeCount];
+		int[] result = new int[size];
+		int clusterCount = 0;
+		for(int x = 0; x < size; x++) {
+			if(!kept[x])
+				continue;
+			if(numbers[tops[x]] == 0)
+				numbers[tops[x]] = ++clusterCount;
+			result[x] = numbers[tops[x]];
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the tree in Newick format, followed by a new line.  The length of a branch is half the difference of the
+	 * heights of its ends, so the path between two leaves is as long as the height of the merge joining them, as for
+	 * an ultrametric UPGMA tree.  The lengths are written with a '.' decimal separator whatever the default locale.
+	 * @param writer			Destination of the tree
+	 * @param labels			Label of each location, quoted when needed
+	 * @param decimals			Number of decimals of the branch lengths
+	 * @throws IOException		If the tree can not be written
+	 */
+	public void writeNewick(Writer writer, String[] labels, int decimals) throws IOException {
+		int root = root();
+		String length = "%." + decimals + "f";
+		/*
+		 * Depth first without recursion, a tree of thousands of locations can be as deep
+		 */
+		int[] stackNodes = new int[2*(size + heights.length) + 1];
+		int[] stackActions = new int[stackNodes.length];
+		int[] parents = new int[size + heights.length];
+		for(int k = 0; k < heights.length; k++) {
+			parents[left[k]] = size + k;
+			parents[right[k]] = size + k;
+		}
+		int top = 0;
+		if(root >= 0) {
+			stackNodes[top] = root;
+			stackActions[top++] = OPEN;
+		}
+		while(top > 0) {
+			int node = stackNodes[--top];
+			int action = stackActions[top];
+			if(action == COMMA) {
+				writer.write(',');
+				continue;
+			}
+			if(action == OPEN && node >= size) {
+				writer.write('(');
+				stackNodes[top] = node;
+				stackActions[top++] = CLOSE;
+				stackNodes[top] = right(node);
+				stackActions[top++] = OPEN;
+				stackActions[top++] = COMMA;
+				stackNodes[top] = left(node);
+				stackActions[top++] = OPEN;
+				continue;
+			}
+			if(action == OPEN)
+				writeLabel(writer, labels[node]);
+			else
+				writer.write(')');
+			if(node != root)
+				writer.append(':').append(String.format(Locale.ROOT, length, (height(parents[node]) - height(node)) / 2));
+		}
+		writer.write(";\n");
+	}
+
+	/**
+	 * Writes a Newick label, in single quotes when it is empty or contains a blank or a special character
+	 */
+	private static void writeLabel(Writer writer, String label) throws IOException {
+		boolean quoted = label.isEmpty();
+		for(int x = 0; x < label.length() && !quoted; x++)
+			quoted = Character.isWhitespace(label.charAt(x)) || NEWICK_SPECIAL.indexOf(label.charAt(x)) >= 0;
+		if(quoted)
+			writer.append('\'').append(label.replace("'", "''")).append('\'');
+		else
+			writer.write(label);
+	}
+
+	/*
+	 * Splits a range of rows of the condensed distances between sites in half until a single row remains, which is
+	 * computed
+	 */
+	private static class SiteDistanceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final SiteIndex sites;
+		private final double scale;
+		private final float[] distances;
+		private final int firstRow;
+		private final int lastRow;
+
+		SiteDistanceTask(SiteIndex theSites, double theScale, float[] theDistances, int theFirstRow, int theLastRow) {
+			sites = theSites;
+			scale = theScale;
+			distances = theDistances;
+			firstRow = theFirstRow;
+			lastRow = theLastRow;
+		}
+
+		protected void compute() {
+			if(lastRow - firstRow <= 1 || getPool() == null) {
+				for(int i = firstRow; i < lastRow; i++) {
+					int rowStart = (int)StoredDistanceMatrix.pairCount(i);
+					double x1 = sites.x[i], y1 = sites.y[i], z1 = sites.z[i];
+					for(int j = 0; j < i; j++)
+						distances[rowStart + j] = (float)(SphericalFunctionEngine.centralAngle(x1, y1, z1, sites.x[j], sites.y[j], sites.z[j])*scale);
+				}
+			}
+			else {
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new SiteDistanceTask(sites, scale, distances, firstRow, middle), new SiteDistanceTask(sites, scale, distances, middle, lastRow));
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+** File: DistanceMatrix.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+/**
+ * Random access to the distances between the locations of a matrix, as numbers rather than text.  The implementations
+ * trade memory for time:
+ *
+ * - LazyDistanceMatrix computes each distance when it is read and only holds the locations;
+ * - StoredDistanceMatrix holds the distances below the diagonal in the heap;
+ * - MappedDistanceMatrix reads them from a binary distance matrix file.
+ *
+ * See GeographicDistanceMatrixGeneratorEngine.distanceMatrix and storedDistanceMatrix.  The distance between a
+ * location and itself is 0, the distances involving a location that is not valid are NaN.  Implementations can be
+ * shared among threads.
+ * @author Peter J. Ersts
+ *
+ */
+public interface DistanceMatrix {
+	/**
+	 * @return					The number of locations, rows and columns of the matrix
+	 */
+	int size();
+
+	/**
+	 * @param index				Index of a location
+	 * @return					The label of the location
+	 */
+	String label(int index);
+
+	/**
+	 * @param label				Label of a location
+	 * @return					Index of the first location with the label, -1 if there is none
+	 */
+	int indexOf(String label);
+
+	/**
+	 * Returns the distance between two locations
+	 * @param row				Index of the first location
+	 * @param column			Index of the second location
+	 * @return					The distance, 0 on the diagonal and NaN if either location is not valid
+	 */
+	double get(int row, int column);
+
+	/**
+	 * Reads the distances from a location to every location
+	 * @param row				Index of the location
+	 * @param distances			Receives the distance to location j at index j, must hold at least size() values
+	 */
+	void getRow(int row, double[] distances);
+}
@@ -0,0 +1,227 @@
+/*
+** File: DistanceMatrixFile.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Layout of the binary distance matrix file.  All values are little endian.
+ * 
+ * <pre>
+ * Header, HEADER_SIZE bytes
+ *   0  4 bytes   magic "GDMB"
+ *   4  int       version
+ *   8  int       flags, FLAG_FLOAT32 and/or FLAG_CONDENSED
+ *  12  int       number of locations, N
+ *  16  double    spheroid radius, in meters
+ *  24  8 bytes   units abbreviation, ASCII padded with zeros
+ *  32  long      offset of the distances
+ *  40  long      offset of the site table
+ * Distances, float64 or float32
+ *   full       N x N values, row major
+ *   condensed  the N(N-1)/2 values below the diagonal, row major, i.e., row y holds the distances to locations 0 to y-1
+ * Site table, one entry per location
+ *   double latitude, double longitude, byte valid (1 or 0), int label length, UTF-8 label
+ * </pre>
+ * 
+ * Distances involving a location that is not valid are stored as NaN.  Because the site table follows the distances
+ * new locations can be appended to a condensed matrix by writing their rows and rewriting the site table, see
+ * GeographicDistanceMatrixGeneratorEngine.appendToBinaryMatrix.
+ * @author Peter J. Ersts
+ *
+ */
+public class DistanceMatrixFile {
+	public static final byte[] MAGIC = { 'G', 'D', 'M', 'B' };
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	/** \brief Distances are stored as float32 rather than float64 */
+	public static final int FLAG_FLOAT32 = 1;
+	/** \brief Only the distances below the diagonal are stored */
+	public static final int FLAG_CONDENSED = 2;
+
+	private DistanceMatrixFile() {
+	}
+
+	/*
+	 * The fields of a header
+	 */
+	static final class Header {
+		int flags;
+		int size;
+		double spheroidRadius;
+		String units;
+		long dataOffset;
+		long siteTableOffset;
+
+		/**
+		 * @return				True if only the distances below the diagonal are stored
+		 */
+		boolean isCondensed() {
+			return (flags & FLAG_CONDENSED) != 0;
+		}
+
+		/**
+		 * @return				True if the distances are stored as float32
+		 */
+		boolean isSinglePrecision() {
+			return (flags & FLAG_FLOAT32) != 0;
+		}
+	}
+
+	/**
+	 * Reads and checks the header at the start of a file
+	 * @param channel			The file
+	 * @param filename			Name of the file, for the error messages
+	 * @return					The header
+	 * @throws IOException		If the file can not be read or is not a binary distance matrix
+	 */
+	static Header readHeader(FileChannel channel, String filename) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0)
+			;
+		buffer.flip();
+		byte[] magic = new byte[MAGIC.length];
+		if(buffer.remaining() < HEADER_SIZE)
+			throw new IOException("Not a binary distance matrix file: "+filename);
+		buffer.get(magic);
+		if(!Arrays.equals(magic, MAGIC))
+			throw new IOException("Not a binary distance matrix file: "+filename);
+		int version = buffer.getInt();
+		if(version != VERSION)
+			throw new IOException("Unsupported binary distance matrix version "+version);
+		Header header = new Header();
+		header.flags = buffer.getInt();
+		header.size = buffer.getInt();
+		header.spheroidRadius = buffer.getDouble();
+		byte[] abbreviation = new byte[8];
+		buffer.get(abbreviation);
+		int length = 0;
+		while(length < abbreviation.length && abbreviation[length] != 0)
+			length++;
+		header.units = new String(abbreviation, 0, length, StandardCharsets.US_ASCII);
+		header.dataOffset = buffer.getLong();
+		header.siteTableOffset = buffer.getLong();
+		if(header.dataOffset + dataLength(header.size, header.flags) > channel.size())
+			throw new IOException("Binary distance matrix file is truncated: "+filename);
+		return header;
+	}
+
+	/**
+	 * Writes the header at the start of a file
+	 * @param channel			The file
+	 * @param flags				FLAG_FLOAT32 and/or FLAG_CONDENSED
+	 * @param size				Number of locations
+	 * @param spheroidRadius	Radius of spherical representation of the earth, in meters
+	 * @param units				Abbreviation of the units of the distances
+	 * @param siteTableOffset	Offset of the site table
+	 * @throws IOException
+	 */
+	static void writeHeader(FileChannel channel, int flags, int size, double spheroidRadius, String units, long siteTableOffset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(flags);
+		header.putInt(size);
+		header.putDouble(spheroidRadius);
+		byte[] abbreviation = units.getBytes(StandardCharsets.US_ASCII);
+		for(int x = 0; x < 8; x++)
+			header.put(x < abbreviation.length ? abbreviation[x] : 0);
+		header.putLong(HEADER_SIZE);
+		header.putLong(siteTableOffset);
+		header.position(0);
+		channel.write(header, 0);
+	}
+
+	/**
+	 * Writes the site table at the current position of the channel
+	 * @param channel			The file
+	 * @param locations			The locations
+	 * @throws IOException
+	 */
+	static void writeSiteTable(FileChannel channel, LocationTable locations) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		for(int x = 0; x < locations.size(); x++) {
+			byte[] label = locations.label(x).getBytes(StandardCharsets.UTF_8);
+			if(buffer.remaining() < 21 + label.length) {
+				buffer.flip();
+				while(buffer.hasRemaining())
+					channel.write(buffer);
+				buffer.clear();
+				if(buffer.capacity() < 21 + label.length)
+					buffer = ByteBuffer.allocate(21 + label.length).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			buffer.putDouble(locations.latitude(x));
+			buffer.putDouble(locations.longitude(x));
+			buffer.put(locations.isValid(x) ? (byte)1 : (byte)0);
+			buffer.putInt(label.length);
+			buffer.put(label);
+		}
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Reads the site table of a file
+	 * @param channel			The file
+	 * @param header			The header of the file
+	 * @return					The locations, with UTF-8 labels
+	 * @throws IOException
+	 */
+	static LocationTable readSiteTable(FileChannel channel, Header header) throws IOException {
+		int size = header.size;
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, header.siteTableOffset, channel.size() - header.siteTableOffset).order(ByteOrder.LITTLE_ENDIAN);
+		double[] latitudes = new double[size];
+		double[] longitudes = new double[size];
+		BitSet valid = new BitSet(size);
+		int[] labelOffsets = new int[size + 1];
+		byte[] labelBytes = new byte[Math.max(0, buffer.remaining() - 21*size)];
+		for(int x = 0; x < size; x++) {
+			latitudes[x] = buffer.getDouble();
+			longitudes[x] = buffer.getDouble();
+			valid.set(x, buffer.get() != 0);
+			int length = buffer.getInt();
+			buffer.get(labelBytes, labelOffsets[x], length);
+			labelOffsets[x+1] = labelOffsets[x] + length;
+		}
+		return new LocationTable(size, latitudes, longitudes, valid, labelBytes, labelOffsets, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param size				Number of locations
+	 * @param flags				FLAG_FLOAT32 and/or FLAG_CONDENSED
+	 * @return					Number of bytes taken by the distances
+	 */
+	static long dataLength(int size, int flags) {
+		long values = (flags & FLAG_CONDENSED) != 0 ? size*(size-1L)/2 : (long)size*size;
+		return values*((flags & FLAG_FLOAT32) != 0 ? 4 : 8);
+	}
+}
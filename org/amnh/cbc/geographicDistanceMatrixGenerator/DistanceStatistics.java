@@ -0,0 +1,266 @@
+/*
+** File: DistanceStatistics.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+/**
+ * Summary of the distribution of the distances between pairs of locations, built one distance at a time without
+ * storing them, see GeographicDistanceMatrixGeneratorEngine.generateStatistics.  It holds:
+ *
+ * - the count, minimum, maximum, mean and variance, updated with Welford's algorithm;
+ * - a histogram of distance classes of a fixed width, from 0 to the largest possible distance;
+ * - a quantile sketch: the distances are counted in buckets whose upper bound is at most gamma times their lower
+ *   bound, so any quantile is returned within RELATIVE_ACCURACY of a distance of the matrix.  The bucket of a
+ *   distance is found from its base 2 exponent and the linear interpolation of its mantissa, an approximation of its
+ *   logarithm that only needs a few bit operations.  It takes about a third more buckets than an exact logarithm
+ *   for the same accuracy, there are still less than 1600 of them.  Distances smaller than SMALLEST_FRACTION of the
+ *   largest possible distance, e.g., between locations a few centimeters apart on the earth, share a single bucket.
+ *
+ * Summaries of different sets of distances are combined with merge, so each thread can fold its distances into its
+ * own summary.  The counts, histogram and quantiles do not depend on how the distances were split among summaries;
+ * the mean and variance only up to rounding.  Instances are not thread safe.
+ * @author Peter J. Ersts
+ *
+ */
+public class DistanceStatistics {
+	/** \brief Largest relative error of a quantile */
+	public static final double RELATIVE_ACCURACY = 0.01;
+	/** \brief Fraction of the largest possible distance under which distances share the first bucket of the quantile sketch */
+	static final double SMALLEST_FRACTION = 1e-9;
+	/** \brief Largest number of distance classes */
+	public static final int MAXIMUM_CLASSES = 1 << 20;
+
+	private final double largest;
+	private final double classWidth;
+	private final long[] classes;
+	/** \brief Largest ratio of the upper to the lower bound of a bucket of the quantile sketch */
+	private final double gamma;
+	/** \brief Upper bound of the first bucket */
+	private final double smallest;
+	private final double smallestLogarithm;
+	/** \brief Width, gamma-1, of the range of the approximate base 2 logarithm covered by a bucket */
+	private final double bucketWidth;
+	private final double bucketsPerUnit;
+	/** \brief Number of distances in each bucket, bucket k > 0 holds the distances whose approximate base 2 logarithm is in [smallestLogarithm + (k-1)*bucketWidth, smallestLogarithm + k*bucketWidth) */
+	private final long[] buckets;
+	private long count;
+	/** \brief Number of pairs without a distance, i.e., involving a location that is not valid */
+	private long missing;
+	private double minimum;
+	private double maximum;
+	private double mean;
+	/** \brief Sum of the squared deviations from the mean */
+	private double squares;
+
+	/**
+	 * Constructor of an empty summary
+	 * @param theLargest		Largest possible distance, half the circumference of the sphere in the units of the distances
+	 * @param theClassWidth		Width of the distance classes of the histogram
+	 * @throws IllegalArgumentException	If the width is not positive or gives more than MAXIMUM_CLASSES classes
+	 */
+	public DistanceStatistics(double theLargest, double theClassWidth) {
+		if(!(theClassWidth > 0) || theLargest / theClassWidth >= MAXIMUM_CLASSES)
+			throw new IllegalArgumentException("The width of the distance classes must be positive and give at most " + MAXIMUM_CLASSES + " classes");
+		largest = theLargest;
+		classWidth = theClassWidth;
+		classes = new long[Math.max(1, (int)Math.ceil(theLargest / theClassWidth))];
+		gamma = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+		smallest = theLargest * SMALLEST_FRACTION;
+		smallestLogarithm = logarithm(smallest);
+		bucketWidth = gamma - 1;
+		bucketsPerUnit = 1 / bucketWidth;
+		buckets = new long[bucket(theLargest) + 2];
+		count = 0;
+		missing = 0;
+		minimum = Double.POSITIVE_INFINITY;
+		maximum = Double.NEGATIVE_INFINITY;
+		mean = 0.0;
+		squares = 0.0;
+	}
+
+	/**
+	 * @return					Index of the bucket of the quantile sketch holding a distance
+	 */
+	private int bucket(double distance) {
+		return distance <= smallest ? 0 : 1 + (int)((logarithm(distance) - smallestLogarithm) * bucketsPerUnit);
+	}
+
+	/**
+	 * Approximate base 2 logarithm, exact at the powers of 2 and linear between them.  A range of width gamma-1 of
+	 * the approximation covers distances whose ratio is at most gamma, also when it spans a power of 2.
+	 * @param value				A positive normal number
+	 */
+	private static double logarithm(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		int exponent = (int)(bits >>> 52) - 1023;
+		double mantissa = Double.longBitsToDouble((bits & 0xfffffffffffffL) | 0x3ff0000000000000L);
+		return exponent + mantissa - 1;
+	}
+
+	/**
+	 * @return					The positive number whose approximate base 2 logarithm is the argument, see logarithm
+	 */
+	private static double inverseLogarithm(double logarithm) {
+		int exponent = (int)Math.floor(logarithm);
+		return Math.scalb(1 + logarithm - exponent, exponent);
+	}
+
+	/**
+	 * Adds a distance to the summary
+	 * @param distance			The distance, NaN for a pair without distance
+	 */
+	public void add(double distance) {
+		if(Double.isNaN(distance)) {
+			missing++;
+			return;
+		}
+		count++;
+		double delta = distance - mean;
+		mean += delta / count;
+		squares += delta * (distance - mean);
+		if(distance < minimum)
+			minimum = distance;
+		if(distance > maximum)
+			maximum = distance;
+		classes[Math.min(classes.length - 1, (int)(distance / classWidth))]++;
+		buckets[Math.min(buckets.length - 1, bucket(distance))]++;
+	}
+
+	/**
+	 * Adds the distances of another summary to this one
+	 * @param other				A summary built with the same largest distance and class width
+	 * @throws IllegalArgumentException	If the summaries do not have the same classes
+	 */
+	public void merge(DistanceStatistics other) {
+		if(other.largest != largest || other.classWidth != classWidth)
+			throw new IllegalArgumentException("Only summaries with the same distance classes can be merged");
+		missing += other.missing;
+		if(other.count == 0)
+			return;
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		squares += other.squares + delta * delta * ((double)count * other.count / total);
+		count = total;
+		minimum = Math.min(minimum, other.minimum);
+		maximum = Math.max(maximum, other.maximum);
+		for(int x = 0; x < classes.length; x++)
+			classes[x] += other.classes[x];
+		for(int x = 0; x < buckets.length; x++)
+			buckets[x] += other.buckets[x];
+	}
+
+	/**
+	 * @return					Number of distances
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * @return					Number of pairs without a distance, because one of their locations is not valid
+	 */
+	public long missing() {
+		return missing;
+	}
+
+	/**
+	 * @return					The smallest distance, NaN if there is none
+	 */
+	public double minimum() {
+		return count == 0 ? Double.NaN : minimum;
+	}
+
+	/**
+	 * @return					The largest distance, NaN if there is none
+	 */
+	public double maximum() {
+		return count == 0 ? Double.NaN : maximum;
+	}
+
+	/**
+	 * @return					The mean distance, NaN if there is none
+	 */
+	public double mean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * @return					The sample variance of the distances, NaN if there are less than two
+	 */
+	public double variance() {
+		return count < 2 ? Double.NaN : squares / (count - 1);
+	}
+
+	/**
+	 * @return					The sample standard deviation of the distances, NaN if there are less than two
+	 */
+	public double standardDeviation() {
+		return Math.sqrt(variance());
+	}
+
+	/**
+	 * Returns an approximate quantile, within RELATIVE_ACCURACY of the distance of that rank
+	 * @param quantile			The quantile, from 0 for the minimum to 1 for the maximum
+	 * @return					The distance, NaN if there is none
+	 */
+	public double quantile(double quantile) {
+		if(count == 0 || !(quantile >= 0 && quantile <= 1))
+			return Double.NaN;
+		long rank = (long)(quantile * (count - 1));
+		long seen = 0;
+		int x = 0;
+		while(seen + buckets[x] <= rank)
+			seen += buckets[x++];
+		double value = 0.0;
+		if(x > 0) {
+			double lower = inverseLogarithm(smallestLogarithm + (x - 1) * bucketWidth);
+			double upper = inverseLogarithm(smallestLogarithm + x * bucketWidth);
+			value = 2 * lower * upper / (lower + upper);
+		}
+		return Math.max(minimum, Math.min(maximum, value));
+	}
+
+	/**
+	 * @return					Width of the distance classes
+	 */
+	public double classWidth() {
+		return classWidth;
+	}
+
+	/**
+	 * @return					Number of distance classes, the last one also holds the distances beyond its upper bound
+	 */
+	public int classCount() {
+		return classes.length;
+	}
+
+	/**
+	 * @param index				Index of a distance class, holding the distances from index*classWidth to (index+1)*classWidth excluded
+	 * @return					Number of distances in the class
+	 */
+	public long classFrequency(int index) {
+		return classes[index];
+	}
+}
@@ -33,7 +33,14 @@
 package org.amnh.cbc.geographicDistanceMatrixGenerator;
 
 public class GeographicDistanceMatrixGenerator {
+	/**
+	 * Starts the GUI, or runs a batch job without a display when command line arguments are given,
+	 * see GeographicDistanceMatrixGeneratorCLI
+	 */
 	public static void main(String[] args) {
-		new GeographicDistanceMatrixGeneratorGUI();
+		if(args.length > 0)
+			GeographicDistanceMatrixGeneratorCLI.main(args);
+		else
+			new GeographicDistanceMatrixGeneratorGUI();
 	}
 }
@@ -0,0 +1,631 @@
+/*
+** File: GeographicDistanceMatrixGeneratorCLI.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+** 
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+** 
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+** 
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.amnh.cbc.core.BlockCompressedOutputStream;
+import org.amnh.cbc.geospatial.DistanceUnit;
+
+/**
+ * Command line front end of the GeographicDistanceMatrixGeneratorEngine for batch use on machines without a display.
+ * Progress and timings are reported on the standard error stream, the matrix is written to the output file or to the
+ * standard output stream when the output is "-".  This class must not reference AWT or Swing.
+ * @author Peter J. Ersts
+ *
+ */
+public class GeographicDistanceMatrixGeneratorCLI {
+	/** \brief Exit status of a successful run */
+	public static final int EXIT_SUCCESS = 0;
+	/** \brief Exit status when the command line arguments are not valid */
+	public static final int EXIT_USAGE = 1;
+	/** \brief Exit status when the input file could not be loaded */
+	public static final int EXIT_INPUT_ERROR = 2;
+	/** \brief Exit status when the matrix could not be generated or written */
+	public static final int EXIT_OUTPUT_ERROR = 3;
+	
+	/** \brief Radius of the WGS84 spheroid, in meters, used when no radius is given */
+	private static final double DEFAULT_RADIUS = 6378137;
+	/** \brief Quantiles written by --statistics, within DistanceStatistics.RELATIVE_ACCURACY */
+	private static final double[] REPORTED_QUANTILES = { 0.01, 0.05, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99 };
+	/** \brief Number of permutations of the Mantel test when none is given */
+	private static final int DEFAULT_PERMUTATIONS = 999;
+	
+	private static final String USAGE = 
+		"Usage: GeographicDistanceMatrixGeneratorCLI [options] <input file> <output file | ->\n" +
+		"  The output is gzip compressed when the name of the output file ends with .gz\n" +
+		"  -u, --units <m|km|nm|rad|deg>    Unit of the distances (default km)\n" +
+		"  -r, --radius <meters>            Radius of the spheroid (default 6378137, WGS84)\n" +
+		"  -f, --format <format>            FULL_MATRIX, LOWER_TRIANGULAR_DIAGONAL or LOWER_TRIANGULAR (default FULL_MATRIX)\n" +
+		"  -t, --threads <count>            Number of threads (default number of processors)\n" +
+		"  -m, --memory <megabytes>         Write the matrix out of core, holding at most this much of it in memory\n" +
+		"  -x, --mirror <megabytes>         Compute the lower triangle of a full matrix once and mirror it, caching at most\n" +
+		"                                   this much of it in memory; the cache grows with the square of the locations\n" +
+		"  -c, --cutoff <distance>          Only write the pairs within the distance, in the units, as row, column, distance lines\n" +
+		"  -k, --neighbours <k>             Only write the label and distance of the k nearest locations of each location\n" +
+		"  -b, --reference <file>           Write the distances from the input locations to the locations of the file, as\n" +
+		"                                   a full matrix with one column per location of the file, or with -k the k nearest\n" +
+		"                                   locations of the file\n" +
+		"  -M, --mantel <file>              Write the Mantel test of the geographic distances against the matrix of the file,\n" +
+		"                                   a binary distance matrix or a text matrix of the same locations in the same order\n" +
+		"  -p, --permutations <count>       Number of permutations of the Mantel test (default 999)\n" +
+		"  -s, --seed <number>              Seed of the permutations of the Mantel test (default random)\n" +
+		"  -S, --statistics <class width>   Only write summary statistics of the distances of all pairs, with a histogram of\n" +
+		"                                   distance classes of the width, in the units\n" +
+		"  -C, --clusters <height>          Only write the average linkage (UPGMA) cluster of each location when the tree\n" +
+		"                                   is cut at the height, in the units, as label, tab, cluster lines; the cluster\n" +
+		"                                   of a location whose coordinates are not valid is 0\n" +
+		"  -T, --tree <file>                With --clusters, also write the tree in Newick format to the file\n" +
+		"  -e, --extra <units>[:<radius>]:<file>\n" +
+		"                                   Also write the matrix in the units, and for the radius (default the one of\n" +
+		"                                   --radius), to the file, computing each distance once for all outputs; can be\n" +
+		"                                   repeated.  The file is gzip compressed when its name ends with .gz\n" +
+		"  -B, --binary                     Write a binary distance matrix file, see DistanceMatrixFile, rather than text\n" +
+		"  -d, --condensed                  With --binary, only store the distances below the diagonal\n" +
+		"  -F, --float32                    With --binary, store the distances in single rather than double precision\n" +
+		"  -A, --append                     Append the locations of the input file to the binary distance matrix output\n" +
+		"                                   file, computing only their distances, with the radius and units of the file\n" +
+		"  -z, --gzip                       Compress the output with gzip, also when it is written to the standard output\n" +
+		"  -q, --quiet                      Do not report progress\n";
+	
+	public static void main(String[] args) {
+		System.exit(run(args, System.err));
+	}
+	
+	/**
+	 * Runs a batch job without calling System.exit
+	 * 
+	 * @param args				The command line arguments
+	 * @param log				Destination of the progress, timings and error messages
+	 * @return					One of the EXIT_ status codes
+	 */
+	public static int run(String[] args, PrintStream log) {
+		String input = null;
+		String output = null;
+		String units = DistanceUnit.KILOMETERS.abbreviation();
+		double radius = DEFAULT_RADIUS;
+		MatrixFormat format = MatrixFormat.FULL_MATRIX;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean quiet = false;
+		long memoryBudget = 0;
+		long mirroringLimit = 0;
+		boolean binary = false;
+		boolean condensed = false;
+		boolean float32 = false;
+		boolean append = false;
+		double cutoff = -1;
+		int neighbours = 0;
+		String reference = null;
+		boolean gzip = false;
+		String mantel = null;
+		double classWidth = 0;
+		double clusterHeight = -1;
+		String tree = null;
+		List<String> extraUnits = new ArrayList<String>();
+		List<Double> extraRadii = new ArrayList<Double>();
+		List<String> extraOutputs = new ArrayList<String>();
+		int permutations = DEFAULT_PERMUTATIONS;
+		long seed = System.nanoTime();
+		
+		/*
+		 * Parse the arguments
+		 */
+		try {
+			for(int x = 0; x < args.length; x++) {
+				String arg = args[x];
+				if(arg.equals("-u") || arg.equals("--units")) {
+					units = value(args, ++x);
+					if(DistanceUnit.fromAbbreviation(units) == null)
+						return usage(log, "Unknown units [" + units + "]");
+				}
+				else if(arg.equals("-r") || arg.equals("--radius")) {
+					radius = Double.parseDouble(value(args, ++x));
+					if(!(radius > 0) || Double.isInfinite(radius))
+						return usage(log, "The radius must be a positive number");
+				}
+				else if(arg.equals("-f") || arg.equals("--format")) {
+					format = MatrixFormat.fromName(value(args, ++x));
+					if(format == null)
+						return usage(log, "Unknown format [" + args[x] + "]");
+				}
+				else if(arg.equals("-t") || arg.equals("--threads")) {
+					threads = Integer.parseInt(value(args, ++x));
+					if(threads < 1)
+						return usage(log, "The number of threads must be at least 1");
+				}
+				else if(arg.equals("-m") || arg.equals("--memory")) {
+					memoryBudget = Long.parseLong(value(args, ++x)) << 20;
+					if(memoryBudget <= 0)
+						return usage(log, "The memory budget must be at least 1 megabyte");
+				}
+				else if(arg.equals("-x") || arg.equals("--mirror")) {
+					mirroringLimit = Long.parseLong(value(args, ++x)) << 20;
+					if(mirroringLimit <= 0)
+						return usage(log, "The mirroring memory must be at least 1 megabyte");
+				}
+				else if(arg.equals("-c") || arg.equals("--cutoff")) {
+					cutoff = Double.parseDouble(value(args, ++x));
+					if(!(cutoff >= 0))
+						return usage(log, "The cutoff must not be negative");
+				}
+				else if(arg.equals("-k") || arg.equals("--neighbours")) {
+					neighbours = Integer.parseInt(value(args, ++x));
+					if(neighbours < 1)
+						return usage(log, "The number of neighbours must be at least 1");
+				}
+				else if(arg.equals("-b") || arg.equals("--reference"))
+					reference = value(args, ++x);
+				else if(arg.equals("-M") || arg.equals("--mantel"))
+					mantel = value(args, ++x);
+				else if(arg.equals("-p") || arg.equals("--permutations")) {
+					permutations = Integer.parseInt(value(args, ++x));
+					if(permutations < 1)
+						return usage(log, "The number of permutations must be at least 1");
+				}
+				else if(arg.equals("-s") || arg.equals("--seed"))
+					seed = Long.parseLong(value(args, ++x));
+				else if(arg.equals("-S") || arg.equals("--statistics")) {
+					classWidth = Double.parseDouble(value(args, ++x));
+					if(!(classWidth > 0) || Double.isInfinite(classWidth))
+						return usage(log, "The width of the distance classes must be a positive number");
+				}
+				else if(arg.equals("-C") || arg.equals("--clusters")) {
+					clusterHeight = Double.parseDouble(value(args, ++x));
+					if(!(clusterHeight >= 0) || Double.isInfinite(clusterHeight))
+						return usage(log, "The height of the clusters must be a number of at least 0");
+				}
+				else if(arg.equals("-T") || arg.equals("--tree"))
+					tree = value(args, ++x);
+				else if(arg.equals("-e") || arg.equals("--extra")) {
+					/*
+					 * The radius is optional and the file name may contain colons, e.g., a Windows drive
+					 */
+					String[] parts = value(args, ++x).split(":", 3);
+					if(parts.length < 2 || DistanceUnit.fromAbbreviation(parts[0]) == null)
+						return usage(log, "An extra output must be <units>[:<radius>]:<file> with known units [" + args[x] + "]");
+					Double extraRadius = null;
+					String extraOutput = parts.length == 2 ? parts[1] : parts[1] + ":" + parts[2];
+					if(parts.length == 3) {
+						try {
+							extraRadius = Double.valueOf(parts[1]);
+							extraOutput = parts[2];
+						}
+						catch (NumberFormatException e) {
+							/* Not a radius, part of the file name */
+						}
+					}
+					if(extraRadius != null && (!(extraRadius > 0) || extraRadius.isInfinite()))
+						return usage(log, "The radius must be a positive number");
+					extraUnits.add(parts[0]);
+					extraRadii.add(extraRadius);
+					extraOutputs.add(extraOutput);
+				}
+				else if(arg.equals("-B") || arg.equals("--binary"))
+					binary = true;
+				else if(arg.equals("-d") || arg.equals("--condensed"))
+					condensed = true;
+				else if(arg.equals("-F") || arg.equals("--float32"))
+					float32 = true;
+				else if(arg.equals("-A") || arg.equals("--append"))
+					append = true;
+				else if(arg.equals("-z") || arg.equals("--gzip"))
+					gzip = true;
+				else if(arg.equals("-q") || arg.equals("--quiet"))
+					quiet = true;
+				else if(arg.equals("-h") || arg.equals("--help")) {
+					log.print(USAGE);
+					return EXIT_SUCCESS;
+				}
+				else if(arg.startsWith("-") && !arg.equals("-"))
+					return usage(log, "Unknown option [" + arg + "]");
+				else if(input == null)
+					input = arg;
+				else if(output == null)
+					output = arg;
+				else
+					return usage(log, "Unexpected argument [" + arg + "]");
+			}
+		}
+		catch (IllegalArgumentException e) {
+			return usage(log, e.getMessage());
+		}
+		if(input == null || output == null)
+			return usage(log, "An input file and an output file are required");
+		if(memoryBudget > 0 && (output.equals("-") || cutoff >= 0 || neighbours > 0))
+			return usage(log, "The out of core mode needs an output file and a full or lower triangular matrix");
+		if(memoryBudget > 0 && gzip && !GeographicDistanceMatrixGeneratorEngine.isCompressed(output))
+			return usage(log, "In the out of core mode the output is compressed when its name ends with .gz");
+		if(cutoff >= 0 && neighbours > 0)
+			return usage(log, "Only one of --cutoff and --neighbours can be used");
+		if(reference != null && (memoryBudget > 0 || cutoff >= 0 || format != MatrixFormat.FULL_MATRIX))
+			return usage(log, "A reference file can only be used with a full matrix or --neighbours");
+		if(mantel != null && (memoryBudget > 0 || cutoff >= 0 || neighbours > 0 || reference != null))
+			return usage(log, "The Mantel test can not be combined with --memory, --cutoff, --neighbours or --reference");
+		if(!extraOutputs.isEmpty() && (memoryBudget > 0 || cutoff >= 0 || neighbours > 0 || reference != null || mantel != null || classWidth > 0 || clusterHeight >= 0))
+			return usage(log, "Extra outputs can only be used with a full or lower triangular matrix, not with --memory, --cutoff, --neighbours, --reference, --mantel, --statistics or --clusters");
+		if(classWidth > 0 && (memoryBudget > 0 || cutoff >= 0 || neighbours > 0 || reference != null || mantel != null))
+			return usage(log, "The statistics can not be combined with --memory, --cutoff, --neighbours, --reference or --mantel");
+		if(clusterHeight >= 0 && (memoryBudget > 0 || cutoff >= 0 || neighbours > 0 || reference != null || mantel != null || classWidth > 0))
+			return usage(log, "The clusters can not be combined with --memory, --cutoff, --neighbours, --reference, --mantel or --statistics");
+		if(tree != null && clusterHeight < 0)
+			return usage(log, "A tree file can only be written with --clusters");
+		if((condensed || float32) && !binary)
+			return usage(log, "--condensed and --float32 can only be used with --binary");
+		if(binary && append)
+			return usage(log, "Only one of --binary and --append can be used, --append keeps the layout of the file");
+		if((binary || append) && (output.equals("-") || gzip || memoryBudget > 0 || cutoff >= 0 || neighbours > 0 || reference != null || mantel != null || classWidth > 0 || clusterHeight >= 0 || !extraOutputs.isEmpty()))
+			return usage(log, "A binary distance matrix needs an output file and can not be combined with --gzip, --memory, --cutoff, --neighbours, --reference, --mantel, --statistics, --clusters or --extra");
+		
+		/*
+		 * Load the locations
+		 */
+		GeographicDistanceMatrixGeneratorEngine engine = new GeographicDistanceMatrixGeneratorEngine();
+		engine.setParallelism(threads);
+		engine.setMirroringMemoryLimit(mirroringLimit);
+		long start = System.nanoTime();
+		if(!engine.loadFromFile(input)) {
+			log.println(engine.loadError());
+			return EXIT_INPUT_ERROR;
+		}
+		if(engine.locationCount() == 0) {
+			log.println("ERROR: [Data Format] The input file [" + input + "] does not contain any location.");
+			return EXIT_INPUT_ERROR;
+		}
+		if(reference != null) {
+			if(!engine.loadReferencesFromFile(reference)) {
+				log.println(engine.loadError());
+				return EXIT_INPUT_ERROR;
+			}
+			if(engine.referenceLocations().size() == 0) {
+				log.println("ERROR: [Data Format] The reference file [" + reference + "] does not contain any location.");
+				return EXIT_INPUT_ERROR;
+			}
+		}
+		long loaded = System.nanoTime();
+		log.println("Loaded " + engine.locationCount() + " locations in " + seconds(start, loaded) + " s");
+		log.println("Found " + engine.siteCount() + " unique sites, compression ratio " + String.format("%.2f", engine.siteCompressionRatio()));
+		if(reference != null)
+			log.println("Loaded " + engine.referenceLocations().size() + " reference locations");
+		
+		/*
+		 * Generate the matrix
+		 */
+		engine.init(radius, units, format.name(), quiet ? null : new StreamProgress(log));
+		boolean generated;
+		String description = format.name();
+		try {
+			if(memoryBudget > 0) {
+				engine.setMemoryBudget(memoryBudget);
+				generated = engine.exportMatrixOutOfCore(output, radius, units, format.name());
+			}
+			else if(binary) {
+				generated = engine.exportBinaryMatrix(output, radius, units, condensed, float32);
+				description = (condensed ? "condensed " : "full ") + (float32 ? "float32" : "float64") + " binary matrix";
+			}
+			else if(append) {
+				if(!engine.appendToBinaryMatrix(output)) {
+					log.println("ERROR: [I/O Exception] The locations could not be appended to [" + output + "], it must be a binary distance matrix file written with --binary.");
+					return EXIT_OUTPUT_ERROR;
+				}
+				generated = true;
+				description = "locations appended to the binary matrix";
+			}
+			else {
+				/*
+				 * Summaries are computed before the output is opened, so that a run failing on its parameters or on a
+				 * second matrix leaves an existing output file untouched
+				 */
+				DistanceStatistics statistics = null;
+				ClusterTree clusters = null;
+				MantelTest.Result result = null;
+				if(classWidth > 0) {
+					try {
+						statistics = engine.generateStatistics(radius, units, classWidth);
+					}
+					catch (IllegalArgumentException e) {
+						return usage(log, e.getMessage());
+					}
+				}
+				else if(clusterHeight >= 0) {
+					clusters = engine.clusterTree(radius, units);
+					if(clusters == null) {
+						log.println("ERROR: [Data Size] The distances between the " + engine.siteCount() + " unique sites do not fit in an array, they can not be clustered.");
+						return EXIT_INPUT_ERROR;
+					}
+				}
+				else if(mantel != null) {
+					try {
+						result = engine.mantelTest(radius, units, mantel, permutations, seed);
+					}
+					catch (IOException e) {
+						log.println("ERROR: [Data Format] The matrix [" + mantel + "] could not be read: " + e.getMessage());
+						return EXIT_INPUT_ERROR;
+					}
+					if(result == null) {
+						log.println("ERROR: [Data Size] The distances between the " + engine.locationCount() + " locations do not fit in an array, they can not be tested.");
+						return EXIT_INPUT_ERROR;
+					}
+				}
+				Writer writer = openOutput(output, gzip, threads);
+				try {
+					if(classWidth > 0) {
+						generated = statistics != null;
+						if(generated)
+							writeStatistics(writer, statistics, DistanceUnit.fromAbbreviation(units).isAngular() ? 9 : 2);
+						description = "statistics of " + (generated ? statistics.count() : 0) + " distances";
+					}
+					else if(clusterHeight >= 0) {
+						generated = true;
+						int clusterCount = writeClusters(engine, writer, clusters, clusterHeight, tree, DistanceUnit.fromAbbreviation(units).isAngular() ? 9 : 2, threads);
+						description = clusterCount + " clusters at height " + clusterHeight;
+					}
+					else if(mantel != null) {
+						generated = true;
+						writeMantelTest(writer, result, seed);
+						description = "Mantel test with " + permutations + " permutations";
+					}
+					else if(cutoff >= 0) {
+						generated = engine.generateSparseMatrix(radius, units, cutoff, writer);
+						description = engine.sparsePairCount() + " pairs within " + cutoff + " " + units;
+					}
+					else if(neighbours > 0 && reference != null) {
+						generated = engine.generateCrossNearestNeighbours(radius, units, neighbours, writer);
+						description = neighbours + " nearest reference locations";
+					}
+					else if(neighbours > 0) {
+						generated = engine.generateNearestNeighbours(radius, units, neighbours, writer);
+						description = neighbours + " nearest neighbours";
+					}
+					else if(reference != null) {
+						generated = engine.generateCrossMatrix(radius, units, writer);
+						description = "cross matrix to " + engine.referenceLocations().size() + " reference locations";
+					}
+					else if(!extraOutputs.isEmpty()) {
+						generated = generateMatrices(engine, writer, radius, units, format, extraOutputs, extraRadii, extraUnits, threads);
+						description = format.name() + " and " + extraOutputs.size() + " extra output(s)";
+					}
+					else
+						generated = engine.generateMatrix(radius, units, format.name(), writer);
+				}
+				finally {
+					closeOutput(writer, output, gzip);
+				}
+			}
+		}
+		catch (IOException e) {
+			log.println("ERROR: [I/O Exception] A problem was encountered while writing the matrix: " + e.getMessage());
+			return EXIT_OUTPUT_ERROR;
+		}
+		catch (OutOfMemoryError e) {
+			log.println("ERROR: [Out Of Memory] The matrix could not be generated, increase the maximum heap size.");
+			return EXIT_OUTPUT_ERROR;
+		}
+		if(!generated) {
+			log.println("ERROR: [I/O Exception] The matrix could not be written to [" + output + "].");
+			return EXIT_OUTPUT_ERROR;
+		}
+		long finished = System.nanoTime();
+		log.println("Generated " + description + " of " + engine.locationCount() + " locations in " + units + " using " + threads + " thread(s) in " + seconds(loaded, finished) + " s");
+		log.println("Total time " + seconds(start, finished) + " s");
+		return EXIT_SUCCESS;
+	}
+	
+	/**
+	 * @param output			Name of the output file, "-" for the standard output stream
+	 * @param gzip				True to compress the output even if its name does not end with .gz
+	 * @param threads			Number of threads compressing the output
+	 * @return					A buffered writer to the output
+	 * @throws IOException
+	 */
+	private static Writer openOutput(String output, boolean gzip, int threads) throws IOException {
+		if(output.equals("-") && gzip)
+			return new BufferedWriter(new OutputStreamWriter(new BlockCompressedOutputStream(System.out, threads)), GeographicDistanceMatrixGeneratorEngine.OUTPUT_BUFFER_SIZE);
+		if(output.equals("-"))
+			return new BufferedWriter(new OutputStreamWriter(System.out), GeographicDistanceMatrixGeneratorEngine.OUTPUT_BUFFER_SIZE);
+		if(gzip && !GeographicDistanceMatrixGeneratorEngine.isCompressed(output))
+			return new BufferedWriter(new OutputStreamWriter(new BlockCompressedOutputStream(new FileOutputStream(output), threads)), GeographicDistanceMatrixGeneratorEngine.OUTPUT_BUFFER_SIZE);
+		return GeographicDistanceMatrixGeneratorEngine.openOutput(output, threads);
+	}
+	
+	/**
+	 * Flushes the writer to the standard output stream, or closes the writer to a file.  A compressed standard output
+	 * stream is closed, which terminates the compressed data.
+	 * @throws IOException		If the output could not be written
+	 */
+	private static void closeOutput(Writer writer, String output, boolean gzip) throws IOException {
+		if(output.equals("-")) {
+			if(gzip)
+				writer.close();
+			else
+				writer.flush();
+			if(System.out.checkError())
+				throw new IOException("the standard output stream could not be written");
+		}
+		else
+			writer.close();
+	}
+	
+	/**
+	 * Generates the matrix to the output and to the extra outputs in a single pass, see
+	 * GeographicDistanceMatrixGeneratorEngine.generateMatrices
+	 */
+	private static boolean generateMatrices(GeographicDistanceMatrixGeneratorEngine engine, Writer writer, double radius, String units, MatrixFormat format,
+			List<String> extraOutputs, List<Double> extraRadii, List<String> extraUnits, int threads) throws IOException {
+		int count = extraOutputs.size() + 1;
+		Writer[] writers = new Writer[count];
+		double[] radii = new double[count];
+		String[] allUnits = new String[count];
+		writers[0] = writer;
+		radii[0] = radius;
+		allUnits[0] = units;
+		try {
+			for(int x = 1; x < count; x++) {
+				radii[x] = extraRadii.get(x-1) != null ? extraRadii.get(x-1) : radius;
+				allUnits[x] = extraUnits.get(x-1);
+				writers[x] = GeographicDistanceMatrixGeneratorEngine.openOutput(extraOutputs.get(x-1), threads);
+			}
+			return engine.generateMatrices(radii, allUnits, format.name(), writers);
+		}
+		finally {
+			for(int x = 1; x < count; x++)
+				if(writers[x] != null)
+					writers[x].close();
+		}
+	}
+	
+	/**
+	 * Writes the summary statistics as name, tab, value lines, then the distance classes as from, tab, to, tab, count
+	 * lines
+	 */
+	private static void writeStatistics(Writer writer, DistanceStatistics statistics, int decimals) throws IOException {
+		String distance = "%." + decimals + "f";
+		writer.append("Pairs\t").append(Long.toString(statistics.count())).append('\n');
+		writer.append("Missing pairs\t").append(Long.toString(statistics.missing())).append('\n');
+		writer.append("Minimum\t").append(String.format(distance, statistics.minimum())).append('\n');
+		writer.append("Maximum\t").append(String.format(distance, statistics.maximum())).append('\n');
+		writer.append("Mean\t").append(String.format(distance, statistics.mean())).append('\n');
+		writer.append("Standard deviation\t").append(String.format(distance, statistics.standardDeviation())).append('\n');
+		writer.append("Variance\t").append(String.format(distance, statistics.variance())).append('\n');
+		for(double quantile : REPORTED_QUANTILES)
+			writer.append("Quantile " + quantile + "\t").append(String.format(distance, statistics.quantile(quantile))).append('\n');
+		writer.append("Distance class\tFrom\tTo\tPairs\n");
+		for(int x = 0; x < statistics.classCount(); x++) {
+			writer.append(Integer.toString(x + 1)).append('\t');
+			writer.append(String.format(distance, x * statistics.classWidth())).append('\t');
+			writer.append(String.format(distance, (x + 1) * statistics.classWidth())).append('\t');
+			writer.append(Long.toString(statistics.classFrequency(x))).append('\n');
+		}
+	}
+	
+	/**
+	 * Writes the cluster of each location as label, tab, cluster lines, and the tree in Newick format to its own file
+	 * when one is given
+	 * @return					The number of clusters
+	 */
+	private static int writeClusters(GeographicDistanceMatrixGeneratorEngine engine, Writer writer, ClusterTree clusters, double height, String tree, int decimals, int threads) throws IOException {
+		LocationTable locations = engine.locations();
+		int[] assignments = clusters.clusters(height);
+		int clusterCount = 0;
+		for(int x = 0; x < assignments.length; x++) {
+			writer.append(locations.label(x)).append('\t').append(Integer.toString(assignments[x])).append('\n');
+			clusterCount = Math.max(clusterCount, assignments[x]);
+		}
+		if(tree != null) {
+			String[] labels = new String[locations.size()];
+			for(int x = 0; x < labels.length; x++)
+				labels[x] = locations.label(x);
+			Writer treeWriter = GeographicDistanceMatrixGeneratorEngine.openOutput(tree, threads);
+			try {
+				clusters.writeNewick(treeWriter, labels, decimals);
+			}
+			finally {
+				treeWriter.close();
+			}
+		}
+		return clusterCount;
+	}
+	
+	/**
+	 * Writes the outcome of a Mantel test as name, tab, value lines
+	 */
+	private static void writeMantelTest(Writer writer, MantelTest.Result result, long seed) throws IOException {
+		writer.append("Mantel statistic r\t").append(Double.toString(result.statistic())).append('\n');
+		writer.append("p-value\t").append(Double.toString(result.pValue())).append('\n');
+		writer.append("Permutations\t").append(Integer.toString(result.permutations())).append('\n');
+		writer.append("Seed\t").append(Long.toString(seed)).append('\n');
+		writer.append("Locations\t").append(Integer.toString(result.locations())).append('\n');
+	}
+	
+	/**
+	 * @return					The value following an option
+	 * @throws IllegalArgumentException	If the option is the last argument
+	 */
+	private static String value(String[] args, int index) {
+		if(index >= args.length)
+			throw new IllegalArgumentException("Missing value for option [" + args[index-1] + "]");
+		return args[index];
+	}
+	
+	private static int usage(PrintStream log, String message) {
+		log.println("ERROR: " + message);
+		log.print(USAGE);
+		return EXIT_USAGE;
+	}
+	
+	private static String seconds(long start, long end) {
+		return String.format("%.3f", (end - start) / 1e9);
+	}
+	
+	/**
+	 * Reports the overall progress as a percentage, at most once per percent
+	 */
+	private static class StreamProgress implements ProgressReporter {
+		private final PrintStream cvLog;
+		private int cvMinimum;
+		private int cvMaximum;
+		private int cvLastPercent;
+		
+		StreamProgress(PrintStream theLog) {
+			cvLog = theLog;
+			cvLastPercent = -1;
+		}
+		
+		public void setOverallMaximum( int theMaximum ) {
+			cvMaximum = theMaximum;
+		}
+		
+		public void setOverallMinimum( int theMinimum ) {
+			cvMinimum = theMinimum;
+		}
+		
+		public void setOverallValue( int theProgress ) {
+			int percent = cvMaximum > cvMinimum ? (int)(100L * (theProgress - cvMinimum) / (cvMaximum - cvMinimum)) : 100;
+			if(percent > cvLastPercent) {
+				cvLastPercent = percent;
+				cvLog.print("\rGenerating matrix: " + percent + "%");
+				cvLog.flush();
+			}
+		}
+		
+		public void setRowMaximum( int theMaximum ) { }
+		
+		public void setRowMinimum( int theMinimum ) { }
+		
+		public void setRowValue( int theProgress ) { }
+		
+		public void setVisible( boolean isVisible ) {
+			if(!isVisible && cvLastPercent >= 0)
+				cvLog.println();
+			cvLastPercent = -1;
+		}
+	}
+}
@@ -34,22 +34,24 @@ package org.amnh.cbc.geographicDistanceMatrixGenerator;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.util.Vector;
 import java.util.Observable;
+import java.util.concurrent.ForkJoinPool;
 
-import javax.swing.JFileChooser;
-import javax.swing.JFrame;
-import javax.swing.JOptionPane;
-
-import org.amnh.cbc.core.SimpleFileFilter;
+import org.amnh.cbc.core.BlockCompressedOutputStream;
+import org.amnh.cbc.geospatial.DistanceUnit;
 import org.amnh.cbc.geospatial.SphericalFunctionEngine;
 
 /**
@@ -58,26 +60,47 @@ import org.amnh.cbc.geospatial.SphericalFunctionEngine;
  *
  */
 public class GeographicDistanceMatrixGeneratorEngine extends Observable implements Runnable {
-	/** \Brief a Vector to hold location records from the input file */
-	private Vector<LocationRecord> rawData;
+	/** \brief Size, in characters, of the buffer used when writing the matrix to a file */
+	static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+	/** \brief Extension of the names of the text outputs that are written gzip compressed */
+	public static final String COMPRESSED_EXTENSION = ".gz";
+	/** \Brief a columnar table to hold the locations from the input file, see LocationTable */
+	private LocationTable rawData;
+	/** \brief Second set of locations, the columns of the cross matrix, see loadReferencesFromFile */
+	private LocationTable cvReferenceData;
 	private Vector<String> outputMatrix;
 	private double cvSpheroidRadius;
 	private String cvUnits;
 	private String cvOutputFormat;
 	private boolean cvDataLoaded;
-	private ProgressDialog cvProgressBar;
+	private ProgressReporter cvProgressBar;
+	/** \brief Description of the problem encountered by the last call to loadFromFile, null if it succeeded */
+	private String cvLoadError;
+	/** \brief Number of threads used to generate the matrix, 1 generates it on the calling thread */
+	private int cvParallelism;
+	/** \brief Largest lower triangle cache, in bytes, used to mirror a streamed FULL_MATRIX rather than computing both halves, 0 by default */
+	private long cvMirroringMemoryLimit;
+	/** \brief Memory, in bytes, the bands of exportMatrixOutOfCore may use together */
+	private long cvMemoryBudget;
+	/** \brief Number of pairs written by the last call to generateSparseMatrix */
+	private long cvSparsePairs;
 	/**
 	 * Constructor 
 	 * 
 	 */
 	public GeographicDistanceMatrixGeneratorEngine() {
-		rawData = new Vector<LocationRecord>();
+		rawData = LocationTable.empty();
+		cvReferenceData = LocationTable.empty();
 		outputMatrix = new Vector<String>();
 		cvSpheroidRadius = 0.0;
 		cvUnits = "";
 		cvOutputFormat = "";
 		cvDataLoaded = false;
 		cvProgressBar = null;
+		cvLoadError = null;
+		cvParallelism = 1;
+		cvMirroringMemoryLimit = 0;
+		cvMemoryBudget = Runtime.getRuntime().maxMemory() / 2;
 	}
 	
 	/**
@@ -86,9 +109,9 @@ public class GeographicDistanceMatrixGeneratorEngine extends Observable implemen
 	 * @param theRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
 	 * @param theUnits			The unit of measurement for the resulting distances
 	 * @param theOutputFormat	The type of matrix to generate
-	 * @param thePBar			A progress dialog
+	 * @param thePBar			A progress dialog or any other receiver of the progress, may be null
 	 */
-	public void init( double theRadius, String theUnits, String theOutputFormat, ProgressDialog thePBar)
+	public void init( double theRadius, String theUnits, String theOutputFormat, ProgressReporter thePBar)
 	{
 		cvSpheroidRadius = theRadius;
 		cvUnits = theUnits;
@@ -96,6 +119,67 @@ public class GeographicDistanceMatrixGeneratorEngine extends Observable implemen
 		cvProgressBar = thePBar;
 	}
 	
+	/**
+	 * Sets the number of threads used to generate the matrix.  The matrix is identical for any number of threads.
+	 * 
+	 * @param theParallelism	Number of threads, values less than 2 generate the matrix on the calling thread
+	 */
+	public void setParallelism( int theParallelism )
+	{
+		cvParallelism = Math.max( 1, theParallelism );
+	}
+	
+	/**
+	 * Sets the memory a FULL_MATRIX written to a Writer or a file may use to compute only the lower triangle and
+	 * mirror it.  The cache grows with the square of the number of locations, so mirroring is off by default to keep
+	 * the memory use of these paths linear; larger matrices compute each half separately.  The matrix kept in memory
+	 * by generateMatrix(double, String, String) is as large as the cache, so it always mirrors up to a quarter of the
+	 * maximum heap size.
+	 * 
+	 * @param theLimit			Largest lower triangle cache, in bytes, 0 to always compute both halves
+	 */
+	public void setMirroringMemoryLimit( long theLimit )
+	{
+		cvMirroringMemoryLimit = theLimit;
+	}
+	
+	/**
+	 * Sets the memory the bands of exportMatrixOutOfCore may use together.  Defaults to half of the maximum heap size.
+	 * 
+	 * @param theBudget			Memory budget, in bytes
+	 */
+	public void setMemoryBudget( long theBudget )
+	{
+		cvMemoryBudget = theBudget;
+	}
+	
+	/**
+	 * Opens a text output file, gzip compressed when its name ends with COMPRESSED_EXTENSION.  The compressed text is
+	 * made of independent gzip members, compressed by a pool of threads, see BlockCompressedOutputStream, and is read
+	 * by gunzip like any gzip file.
+	 * 
+	 * @param theFilename		The name of the output file
+	 * @param theThreads		Number of threads compressing the output
+	 * @return					A buffered writer to the file
+	 * @throws IOException
+	 */
+	static Writer openOutput( String theFilename, int theThreads ) throws IOException
+	{
+		if( !isCompressed( theFilename ) )
+			return new BufferedWriter(new FileWriter(new File( theFilename )), OUTPUT_BUFFER_SIZE);
+		OutputStream stream = new FileOutputStream(new File( theFilename ));
+		return new BufferedWriter(new OutputStreamWriter(new BlockCompressedOutputStream(stream, theThreads)), OUTPUT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * @param theFilename		The name of an output file
+	 * @return					True if the file is written gzip compressed, see openOutput
+	 */
+	static boolean isCompressed( String theFilename )
+	{
+		return theFilename.toLowerCase().endsWith( COMPRESSED_EXTENSION );
+	}
+	
 	public void run()
 	{
 		if( cvDataLoaded && cvSpheroidRadius != 0.0 )
@@ -111,11 +195,13 @@ public class GeographicDistanceMatrixGeneratorEngine extends Observable implemen
 			return false;
 
     	try {
-    		BufferedWriter outputStream = null;
-  			outputStream = new BufferedWriter(new FileWriter(new File( theFilename )));
+    		Writer outputStream = null;
+  			outputStream = openOutput( theFilename, cvParallelism );
     		
-  			for (int x = 0; x < outputMatrix.size(); x++)
-  				outputStream.write(outputMatrix.elementAt(x)+"\n");
+  			for (int x = 0; x < outputMatrix.size(); x++) {
+  				outputStream.write(outputMatrix.elementAt(x));
+  				outputStream.write('\n');
+  			}
     		       		
     		outputStream.close();
     	}
@@ -128,168 +214,896 @@ public class GeographicDistanceMatrixGeneratorEngine extends Observable implemen
 	
 	/**
 	 * Generates a matrix representing the great circle distances for all pairwise combinations of
-	 * points stored in the rawData vector. If a coordinate is not a valid number, display ERROR in output
+	 * points stored in the rawData table. If a coordinate is not a valid number, display ERROR in output.
+	 * The matrix is computed in tiles, which are shared among threads when the parallelism is greater than one.
 	 * 
 	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
 	 * @param units						The unit of measurement for the resulting distances
 	 * @param outputFormat				The type of matrix to generate
-	 * @return							A vector of string representing, where each string in the vector represents a row in the matrix
+	 * @return							A vector of string representing, where each string in the vector represents a row in the matrix, null if there is no data or the units are not recognized
 	 */
 	public Vector<String> generateMatrix(double spheroidRadius, String units, String outputFormat) {
-		if( rawData.isEmpty())
-			return null;
+		try {
+			if( !generate( spheroidRadius, units, outputFormat, null, rawData ) )
+				return null;
+		}
+		catch (IOException e) {
+			/* Not possible, no Writer is used when the matrix is kept in memory */
+		}
+		return outputMatrix;
+	}
+	
+	/**
+	 * Generates the matrix and writes each row to output as soon as it has been computed, see 
+	 * generateMatrix(double, String, String).  The rows are not kept in memory, so memory use only grows 
+	 * linearly with the number of locations and matrix() will be empty afterwards, unless mirroring is enabled by
+	 * setMirroringMemoryLimit(long).
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param outputFormat				The type of matrix to generate
+	 * @param output					Destination of the rows, each row is followed by a new line. It is not closed.
+	 * @return							False if there is no data or the units are not recognized
+	 * @throws IOException
+	 */
+	public boolean generateMatrix(double spheroidRadius, String units, String outputFormat, Writer output) throws IOException {
+		outputMatrix.clear();
+		return generate( spheroidRadius, units, outputFormat, output, rawData );
+	}
+	
+	/**
+	 * Generates the matrix straight into a file, see generateMatrix(double, String, String, Writer).  The file is gzip
+	 * compressed, in parallel, when its name ends with COMPRESSED_EXTENSION, see openOutput.
+	 * 
+	 * @param theFilename				The name of the output file
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param outputFormat				The type of matrix to generate
+	 * @return							True or false on successful export
+	 */
+	public boolean exportMatrix(String theFilename, double spheroidRadius, String units, String outputFormat) {
+		try {
+			Writer outputStream = openOutput( theFilename, cvParallelism );
+			try {
+				return generateMatrix( spheroidRadius, units, outputFormat, outputStream );
+			}
+			finally {
+				outputStream.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Generates the matrix in several units or for several radii in a single pass: the central angle of each pair is
+	 * computed once, then each band of rows is formatted and written once per output, see MatrixBand.format.  Each
+	 * output is identical to the one generateMatrix(double, String, String, Writer) writes for its radius and units.
+	 * 
+	 * @param spheroidRadii				Radius of spherical representation of the earth of each output, in meters
+	 * @param units						The unit of measurement of the distances of each output
+	 * @param outputFormat				The type of matrix to generate, the same for all outputs
+	 * @param outputs					Destination of the rows of each output, each row is followed by a new line. They are not closed.
+	 * @return							False if there is no data, no output, or the units of an output are not recognized
+	 * @throws IOException
+	 */
+	public boolean generateMatrices(double[] spheroidRadii, String[] units, String outputFormat, Writer[] outputs) throws IOException {
+		MatrixFormat format = MatrixFormat.fromName(outputFormat);
+		int count = outputs.length;
+		if( rawData.isEmpty() || format == null || count == 0 || spheroidRadii.length != count || units.length != count)
+			return false;
+		double[] scales = new double[count];
+		int[] decimals = new int[count];
+		for(int x = 0; x < count; x++) {
+			DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units[x]);
+			if(distanceUnit == null)
+				return false;
+			scales[x] = new SphericalFunctionEngine(spheroidRadii[x]).unitScale(distanceUnit);
+			decimals[x] = distanceUnit.isAngular() ? 9 : 2;
+		}
 		
+		int size = rawData.size();
 		if( cvProgressBar != null)
 		{
 			cvProgressBar.setOverallMinimum( 0 );
-			cvProgressBar.setOverallMaximum( rawData.size() - 1 );
+			cvProgressBar.setOverallMaximum( size - 1 );
 			cvProgressBar.setOverallValue( 0 );
-			cvProgressBar.setRowMinimum( 0 );
-			cvProgressBar.setRowMaximum( rawData.size() - 1 );
-			cvProgressBar.setRowValue( 0 );
 			cvProgressBar.setVisible( true );
-			
 		}
-		
-		String rowData = null;
-		double distance = 0.0;
-		NumberFormat formatter;
 		outputMatrix.clear();
-		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
-		
-		if(units.equalsIgnoreCase("RAD") || units.equalsIgnoreCase("DEG"))
-			formatter = new DecimalFormat("0.000000000");
-		else
-			formatter = new DecimalFormat("0.00");
+		ForkJoinPool pool = cvParallelism > 1 ? new ForkJoinPool(cvParallelism) : null;
+		try {
+			String rowData = headerRow(format, rawData);
+			for(int x = 0; x < count; x++)
+				outputs[x].append(rowData).append('\n');
+			
+			/*
+			 * The first band computes the angles, by site when many locations share their coordinates, the others
+			 * only format them
+			 */
+			MatrixBand[] bands = new MatrixBand[count];
+			bands[0] = new MatrixBand(rawData, format, scales[0], decimals[0]);
+			if(rawData.sites().worthwhile())
+				bands[0].deduplicateSites();
+			for(int x = 1; x < count; x++)
+				bands[x] = new MatrixBand(bands[0], scales[x], decimals[x]);
+			for(int bandStart = format.firstRow(); bandStart < size; bandStart += MatrixBand.TILE_SIZE) {
+				int bandEnd = Math.min(size, bandStart + MatrixBand.TILE_SIZE);
+				bands[0].compute(bandStart, bandEnd, pool);
+				for(int x = 1; x < count; x++)
+					bands[x].format(pool);
+				for(int y = bandStart; y < bandEnd; y++) {
+					if( cvProgressBar != null) { cvProgressBar.setOverallValue( y ); }
+					for(int x = 0; x < count; x++)
+						bands[x].writeRow(y, outputs[x]);
+				}
+			}
+		}
+		finally {
+			if(pool != null)
+				pool.shutdown();
+			if( cvProgressBar != null) { cvProgressBar.setVisible( false ); }
+		}
+		return true;
+	}
 	
-		/*
-		 * This could be made more elegant and compress into one routine but I am lazy ;)
-		 */
-		if(outputFormat.equalsIgnoreCase("FULL_MATRIX")) {
-			rowData = new String("");
-			for(int x = 0; x < rawData.size(); x++) {
-				rowData = rowData+"\t"+rawData.elementAt(x).label;
+	/**
+	 * Generates the matrix in several units or for several radii in a single pass straight into files, see
+	 * generateMatrices.  Each file is gzip compressed when its name ends with COMPRESSED_EXTENSION, see openOutput.
+	 * 
+	 * @param theFilenames				The name of the output file of each output
+	 * @param spheroidRadii				Radius of spherical representation of the earth of each output, in meters
+	 * @param units						The unit of measurement of the distances of each output
+	 * @param outputFormat				The type of matrix to generate, the same for all outputs
+	 * @return							True or false on successful export
+	 */
+	public boolean exportMatrices(String[] theFilenames, double[] spheroidRadii, String[] units, String outputFormat) {
+		Writer[] outputs = new Writer[theFilenames.length];
+		try {
+			try {
+				for(int x = 0; x < outputs.length; x++)
+					outputs[x] = openOutput( theFilenames[x], cvParallelism );
+				return generateMatrices( spheroidRadii, units, outputFormat, outputs );
 			}
-			outputMatrix.add(rowData);
-			for(int y = 0; y < rawData.size(); y++) {
-				if( cvProgressBar != null) { cvProgressBar.setOverallValue( y ); }
-				LocationRecord lr = rawData.elementAt(y);
-				rowData = lr.label;
-				for(int x = 0; x < rawData.size(); x++) {
-					if( cvProgressBar != null) { cvProgressBar.setRowValue( x ); }
-					LocationRecord lr2 = rawData.elementAt(x);
-					if(x == y) {
-						rowData = rowData+"\t"+formatter.format(0.0);
+			finally {
+				IOException failure = null;
+				for(int x = 0; x < outputs.length; x++) {
+					try {
+						if(outputs[x] != null)
+							outputs[x].close();
 					}
-					else if(lr.isValid && lr2.isValid) {
-						distance = SFE.greatCircleDistance(lr.longitude, lr.latitude, lr2.longitude, lr2.latitude, units);
-						rowData = rowData+"\t"+formatter.format(distance);
+					catch (IOException e) {
+						failure = e;
 					}
-					else
-						rowData = rowData+"\tERROR";
 				}
-				outputMatrix.add(rowData);
+				if(failure != null)
+					throw failure;
 			}
 		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Generates the matrix into a file without holding more than the memory budget of rows in memory, see
+	 * setMemoryBudget(long).  Each thread computes bands of rows sized to fit the budget and writes them to temporary
+	 * files in the directory of the output file, which are appended to the output in order.  The file is identical
+	 * to the one written by exportMatrix, once decompressed when its name ends with COMPRESSED_EXTENSION: each
+	 * temporary file is then compressed by the thread that computed it.
+	 * 
+	 * @param theFilename				The name of the output file
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param outputFormat				The type of matrix to generate
+	 * @return							True or false on successful export
+	 */
+	public boolean exportMatrixOutOfCore(String theFilename, double spheroidRadius, String units, String outputFormat) {
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		MatrixFormat format = MatrixFormat.fromName(outputFormat);
+		if( rawData.isEmpty() || distanceUnit == null || format == null)
+			return false;
 		
-		if(outputFormat.equalsIgnoreCase("LOWER_TRIANGULAR_DIAGONAL")) {
-			rowData = new String("");
-			for(int x = 0; x < rawData.size(); x++) {
-				rowData = rowData+"\t"+((LocationRecord)rawData.elementAt(x)).label;
+		if( cvProgressBar != null)
+		{
+			cvProgressBar.setOverallMinimum( 0 );
+			cvProgressBar.setOverallMaximum( rawData.size() - 1 );
+			cvProgressBar.setOverallValue( 0 );
+			cvProgressBar.setVisible( true );
+		}
+		
+		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
+		int decimals = distanceUnit.isAngular() ? 9 : 2;
+		OutOfCoreMatrixWriter writer = new OutOfCoreMatrixWriter(rawData, format, SFE.unitScale(distanceUnit), decimals, cvParallelism, cvMemoryBudget, isCompressed( theFilename ));
+		try {
+			writer.write(new File( theFilename ), headerRow(format, rawData), cvProgressBar);
+		}
+		catch (IOException e) {
+			return false;
+		}
+		finally {
+			if( cvProgressBar != null) { cvProgressBar.setVisible( false ); }
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes only the pairs of valid locations that are at most a cutoff distance apart, as "row<TAB>column<TAB>distance"
+	 * lines (COO triples) where row and column are the indices of the locations in the input file, starting at 0, and
+	 * column is less than row.  The lines are ordered by row then column.  Candidate pairs come from a spatial index over
+	 * the unit vectors of the locations, see UnitVectorTree, so the run time grows with the number of locations plus the
+	 * number of close pairs rather than with the number of cells of the matrix.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances and the cutoff
+	 * @param cutoff					Largest distance written
+	 * @param output					Destination of the lines.  It is not closed.
+	 * @return							False if there is no data, the units are not recognized or the cutoff is negative
+	 * @throws IOException
+	 */
+	public boolean generateSparseMatrix(double spheroidRadius, String units, double cutoff, Writer output) throws IOException {
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		cvSparsePairs = 0;
+		if( rawData.isEmpty() || distanceUnit == null || !(cutoff >= 0))
+			return false;
+		
+		if( cvProgressBar != null)
+		{
+			cvProgressBar.setOverallMinimum( 0 );
+			cvProgressBar.setOverallMaximum( rawData.size() - 1 );
+			cvProgressBar.setOverallValue( 0 );
+			cvProgressBar.setVisible( true );
+		}
+		
+		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
+		int decimals = distanceUnit.isAngular() ? 9 : 2;
+		SparseMatrixWriter writer = new SparseMatrixWriter(rawData, SFE.unitScale(distanceUnit), decimals, cutoff);
+		ForkJoinPool pool = cvParallelism > 1 ? new ForkJoinPool(cvParallelism) : null;
+		try {
+			writer.write(output, pool, cvProgressBar);
+			cvSparsePairs = writer.pairs();
+		}
+		finally {
+			if(pool != null)
+				pool.shutdown();
+			if( cvProgressBar != null) { cvProgressBar.setVisible( false ); }
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes the pairs within a cutoff distance into a file, see generateSparseMatrix(double, String, double, Writer)
+	 * 
+	 * @param theFilename				The name of the output file
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances and the cutoff
+	 * @param cutoff					Largest distance written
+	 * @return							True or false on successful export
+	 */
+	public boolean exportSparseMatrix(String theFilename, double spheroidRadius, String units, double cutoff) {
+		try {
+			Writer outputStream = openOutput( theFilename, cvParallelism );
+			try {
+				return generateSparseMatrix( spheroidRadius, units, cutoff, outputStream );
 			}
-			outputMatrix.add(rowData);
-			for(int y = 0; y < rawData.size(); y++) {
-				if( cvProgressBar != null) { cvProgressBar.setOverallValue( y ); }
-				LocationRecord lr = (LocationRecord)rawData.elementAt(y);
-				rowData = lr.label;
-				if( cvProgressBar != null) { cvProgressBar.setRowMaximum( y ); }
-				for(int x = 0; x <= y; x++) {
-					if( cvProgressBar != null) { cvProgressBar.setRowValue( x ); }
-					LocationRecord lr2 = (LocationRecord)rawData.elementAt(x);
-					if(x == y) {
-						rowData = rowData+"\t"+formatter.format(0.0);
-					}
-					else if(lr.isValid && lr2.isValid) {
-						distance = SFE.greatCircleDistance(lr.longitude, lr.latitude, lr2.longitude, lr2.latitude, units);
-						rowData = rowData+"\t"+formatter.format(distance);
+			finally {
+				outputStream.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * @return							Number of pairs written by the last call to generateSparseMatrix or exportSparseMatrix
+	 */
+	public long sparsePairCount()
+	{
+		return cvSparsePairs;
+	}
+	
+	/**
+	 * Writes the k nearest locations of each location, one line per location in input order: its label followed by the
+	 * label and distance of each neighbour, nearest first, separated by tabs.  A location that is not valid is followed
+	 * by ERROR.  The neighbours are found with a spatial index over the unit vectors of the locations, see
+	 * UnitVectorTree, and the locations are searched in parallel.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param k							Number of neighbours of each location
+	 * @param output					Destination of the lines.  It is not closed.
+	 * @return							False if there is no data, the units are not recognized or k is less than 1
+	 * @throws IOException
+	 */
+	public boolean generateNearestNeighbours(double spheroidRadius, String units, int k, Writer output) throws IOException {
+		return nearestNeighbours( spheroidRadius, units, k, output, rawData );
+	}
+	
+	/**
+	 * Shared implementation of generateNearestNeighbours and generateCrossNearestNeighbours
+	 * 
+	 * @param references				Locations among which the neighbours are searched
+	 */
+	private boolean nearestNeighbours(double spheroidRadius, String units, int k, Writer output, LocationTable references) throws IOException {
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		if( rawData.isEmpty() || references.isEmpty() || distanceUnit == null || k < 1)
+			return false;
+		
+		if( cvProgressBar != null)
+		{
+			cvProgressBar.setOverallMinimum( 0 );
+			cvProgressBar.setOverallMaximum( rawData.size() - 1 );
+			cvProgressBar.setOverallValue( 0 );
+			cvProgressBar.setVisible( true );
+		}
+		
+		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
+		int decimals = distanceUnit.isAngular() ? 9 : 2;
+		NearestNeighbourWriter writer = new NearestNeighbourWriter(rawData, references, SFE.unitScale(distanceUnit), decimals, k);
+		ForkJoinPool pool = cvParallelism > 1 ? new ForkJoinPool(cvParallelism) : null;
+		try {
+			writer.write(output, pool, cvProgressBar);
+		}
+		finally {
+			if(pool != null)
+				pool.shutdown();
+			if( cvProgressBar != null) { cvProgressBar.setVisible( false ); }
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes the k nearest locations of each location into a file, see generateNearestNeighbours(double, String, int, Writer)
+	 * 
+	 * @param theFilename				The name of the output file
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param k							Number of neighbours of each location
+	 * @return							True or false on successful export
+	 */
+	public boolean exportNearestNeighbours(String theFilename, double spheroidRadius, String units, int k) {
+		try {
+			Writer outputStream = openOutput( theFilename, cvParallelism );
+			try {
+				return generateNearestNeighbours( spheroidRadius, units, k, outputStream );
+			}
+			finally {
+				outputStream.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Generates the |A| x |B| cross matrix, where A are the locations loaded by loadFromFile (the rows) and B the
+	 * locations loaded by loadReferencesFromFile (the columns).  The first row holds the labels of B, every other row
+	 * the label of a location of A followed by its distances to each location of B, ERROR where either location is not
+	 * valid.  The unit vectors of B are computed once when B is loaded and the rows are computed in parallel tiles and
+	 * streamed as for generateMatrix(double, String, String, Writer).
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param output					Destination of the rows, each row is followed by a new line. It is not closed.
+	 * @return							False if either set of locations is empty or the units are not recognized
+	 * @throws IOException
+	 */
+	public boolean generateCrossMatrix(double spheroidRadius, String units, Writer output) throws IOException {
+		outputMatrix.clear();
+		return generate( spheroidRadius, units, MatrixFormat.FULL_MATRIX.name(), output, cvReferenceData );
+	}
+	
+	/**
+	 * Generates the cross matrix in memory, see generateCrossMatrix(double, String, Writer)
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @return							The rows of the matrix, null if either set of locations is empty or the units are not recognized
+	 */
+	public Vector<String> generateCrossMatrix(double spheroidRadius, String units) {
+		try {
+			if( !generate( spheroidRadius, units, MatrixFormat.FULL_MATRIX.name(), null, cvReferenceData ) )
+				return null;
+		}
+		catch (IOException e) {
+			/* Not possible, no Writer is used when the matrix is kept in memory */
+		}
+		return outputMatrix;
+	}
+	
+	/**
+	 * Generates the cross matrix straight into a file, see generateCrossMatrix(double, String, Writer)
+	 * 
+	 * @param theFilename				The name of the output file
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @return							True or false on successful export
+	 */
+	public boolean exportCrossMatrix(String theFilename, double spheroidRadius, String units) {
+		try {
+			Writer outputStream = openOutput( theFilename, cvParallelism );
+			try {
+				return generateCrossMatrix( spheroidRadius, units, outputStream );
+			}
+			finally {
+				outputStream.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Writes the k nearest locations of B, loaded by loadReferencesFromFile, of each location of A, loaded by
+	 * loadFromFile, in the format of generateNearestNeighbours.  The spatial index of B is built once.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param k							Number of neighbours of each location
+	 * @param output					Destination of the lines.  It is not closed.
+	 * @return							False if either set of locations is empty, the units are not recognized or k is less than 1
+	 * @throws IOException
+	 */
+	public boolean generateCrossNearestNeighbours(double spheroidRadius, String units, int k, Writer output) throws IOException {
+		return nearestNeighbours( spheroidRadius, units, k, output, cvReferenceData );
+	}
+	
+	/**
+	 * Generates the matrix into a binary file, see DistanceMatrixFile and MappedDistanceMatrix.  Distances involving
+	 * a location that is not valid are stored as NaN.
+	 * 
+	 * @param theFilename				The name of the output file
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param condensed					True to only store the distances below the diagonal, false to store the full matrix
+	 * @param singlePrecision			True to store the distances as float32 rather than float64
+	 * @return							True or false on successful export
+	 */
+	public boolean exportBinaryMatrix(String theFilename, double spheroidRadius, String units, boolean condensed, boolean singlePrecision) {
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		if( rawData.isEmpty() || distanceUnit == null)
+			return false;
+		
+		int size = rawData.size();
+		int flags = (condensed ? DistanceMatrixFile.FLAG_CONDENSED : 0) | (singlePrecision ? DistanceMatrixFile.FLAG_FLOAT32 : 0);
+		MatrixFormat format = condensed ? MatrixFormat.LOWER_TRIANGULAR : MatrixFormat.FULL_MATRIX;
+		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
+		MatrixBand band = new MatrixBand(rawData, format, SFE.unitScale(distanceUnit), 0);
+		if(rawData.sites().worthwhile())
+			band.deduplicateSites();
+		ForkJoinPool pool = cvParallelism > 1 ? new ForkJoinPool(cvParallelism) : null;
+		try {
+			RandomAccessFile file = new RandomAccessFile(new File( theFilename ), "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				channel.truncate(0);
+				long siteTableOffset = DistanceMatrixFile.HEADER_SIZE + DistanceMatrixFile.dataLength(size, flags);
+				DistanceMatrixFile.writeHeader(channel, flags, size, spheroidRadius, distanceUnit.abbreviation(), siteTableOffset);
+				channel.position(DistanceMatrixFile.HEADER_SIZE);
+				
+				ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				for(int bandStart = format.firstRow(); bandStart < size; bandStart += MatrixBand.TILE_SIZE) {
+					int bandEnd = Math.min(size, bandStart + MatrixBand.TILE_SIZE);
+					band.computeValues(bandStart, bandEnd, pool);
+					for(int y = bandStart; y < bandEnd; y++) {
+						int rowLength = format.rowLength(size, y);
+						for(int x = 0; x < rowLength; x++) {
+							if(buffer.remaining() < 8)
+								drain(buffer, channel);
+							if(singlePrecision)
+								buffer.putFloat((float)band.value(y, x));
+							else
+								buffer.putDouble(band.value(y, x));
+						}
 					}
-					else
-						rowData = rowData+"\tERROR";
 				}
-				outputMatrix.add(rowData);
+				drain(buffer, channel);
+				
+				DistanceMatrixFile.writeSiteTable(channel, rawData);
 			}
+			finally {
+				file.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+		finally {
+			if(pool != null)
+				pool.shutdown();
+		}
+		return true;
+	}
+	
+	/**
+	 * Appends the locations loaded by loadFromFile, e.g., a file of new sites, to a binary distance matrix file written
+	 * by exportBinaryMatrix.  Only the distances involving the new locations are computed, using the radius and the
+	 * units stored in the file: the rows of a condensed matrix are appended after its distances and a full matrix is
+	 * widened in place, see BinaryMatrixAppender.  The file is then identical to the one exportBinaryMatrix writes for
+	 * the locations of the file followed by the new ones.
+	 * 
+	 * @param theFilename				The name of the binary distance matrix file
+	 * @return							True or false on successful append
+	 */
+	public boolean appendToBinaryMatrix(String theFilename) {
+		if( rawData.isEmpty() )
+			return false;
+		if( cvProgressBar != null) { cvProgressBar.setVisible( true ); }
+		try {
+			new BinaryMatrixAppender(rawData, cvParallelism).append(new File( theFilename ), cvProgressBar);
+		}
+		catch (IOException e) {
+			return false;
+		}
+		finally {
+			if( cvProgressBar != null) { cvProgressBar.setVisible( false ); }
 		}
+		return true;
+	}
+	
+	/**
+	 * Generates the condensed matrix: the distances below the diagonal, row by row, the distance between locations i
+	 * and j, j < i, at index i(i-1)/2 + j.  Distances involving a location that is not valid are NaN.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @return							The distances, null if no location is loaded, the units are not known or there are too many locations for an array
+	 */
+	public double[] condensedMatrix(double spheroidRadius, String units) {
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		int size = rawData.size();
+		long pairs = (long)size*(size-1)/2;
+		if( rawData.isEmpty() || distanceUnit == null || pairs > Integer.MAX_VALUE - 8)
+			return null;
 		
-		if(outputFormat.equalsIgnoreCase("LOWER_TRIANGULAR")) {
-			rowData = new String("");
-			for(int x = 0; x < rawData.size()-1; x++) {
-				rowData = rowData+"\t"+((LocationRecord)rawData.elementAt(x)).label;
+		double[] distances = new double[(int)pairs];
+		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
+		MatrixBand band = new MatrixBand(rawData, MatrixFormat.LOWER_TRIANGULAR, SFE.unitScale(distanceUnit), 0);
+		if(rawData.sites().worthwhile())
+			band.deduplicateSites();
+		ForkJoinPool pool = cvParallelism > 1 ? new ForkJoinPool(cvParallelism) : null;
+		try {
+			int index = 0;
+			for(int bandStart = 1; bandStart < size; bandStart += MatrixBand.TILE_SIZE) {
+				int bandEnd = Math.min(size, bandStart + MatrixBand.TILE_SIZE);
+				band.computeValues(bandStart, bandEnd, pool);
+				for(int y = bandStart; y < bandEnd; y++)
+					for(int x = 0; x < y; x++)
+						distances[index++] = band.value(y, x);
 			}
-			outputMatrix.add(rowData);
-			for(int y = 1; y < rawData.size(); y++) {	
-				if( cvProgressBar != null) { cvProgressBar.setOverallValue( y ); }
-				LocationRecord lr = (LocationRecord)rawData.elementAt(y);
-				rowData = lr.label;
-				if( cvProgressBar != null) { cvProgressBar.setRowMaximum( y-1 ); }
-				for(int x = 0; x < y; x++) {
-					if( cvProgressBar != null) { cvProgressBar.setRowValue( x ); }
-					LocationRecord lr2 = (LocationRecord)rawData.elementAt(x);
-					if(x == y) {
-						rowData = rowData+"\t"+formatter.format(0.0);
+		}
+		finally {
+			if(pool != null)
+				pool.shutdown();
+		}
+		return distances;
+	}
+	
+	/**
+	 * Returns random access to the distances between the locations, computed each time they are read, see
+	 * LazyDistanceMatrix.  Nothing is computed or stored by this method.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @return							The matrix, null if no location is loaded or the units are not known
+	 */
+	public DistanceMatrix distanceMatrix(double spheroidRadius, String units) {
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		if( rawData.isEmpty() || distanceUnit == null)
+			return null;
+		return new LazyDistanceMatrix(rawData, new SphericalFunctionEngine(spheroidRadius).unitScale(distanceUnit));
+	}
+	
+	/**
+	 * Returns random access to the distances between the locations, all computed by this method and held in memory,
+	 * see condensedMatrix and StoredDistanceMatrix.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @return							The matrix, null if it could not be generated, see condensedMatrix
+	 */
+	public DistanceMatrix storedDistanceMatrix(double spheroidRadius, String units) {
+		double[] distances = condensedMatrix(spheroidRadius, units);
+		return distances == null ? null : new StoredDistanceMatrix(rawData, distances);
+	}
+	
+	/**
+	 * Runs a Mantel test of the correlation between the geographic distances of the locations and a second matrix of
+	 * the same locations, in the same order, e.g., genetic distances.  The second matrix is a binary distance matrix
+	 * file or a text matrix in one of the formats of generateMatrix, see MantelTest.readCondensedMatrix.  The
+	 * permutations are shared among the threads set by setParallelism, the result for a seed does not depend on their
+	 * number.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement of the geographic distances
+	 * @param theMatrixFilename			The name of the file of the second matrix
+	 * @param permutations				Number of random permutations
+	 * @param seed						Seed of the random number generator
+	 * @return							The statistic and its p-value, null if the geographic matrix could not be generated, see condensedMatrix
+	 * @throws IOException				If the second matrix can not be read or does not have one row per location
+	 */
+	public MantelTest.Result mantelTest(double spheroidRadius, String units, String theMatrixFilename, int permutations, long seed) throws IOException {
+		double[] geographic = condensedMatrix(spheroidRadius, units);
+		if(geographic == null)
+			return null;
+		double[] other = MantelTest.readCondensedMatrix(theMatrixFilename, rawData.size());
+		boolean[] valid = new boolean[rawData.size()];
+		for(int x = 0; x < valid.length; x++)
+			valid[x] = rawData.isValid(x);
+		return new MantelTest(geographic, other, rawData.size(), valid).test(permutations, seed, cvParallelism);
+	}
+	
+	/**
+	 * Clusters the locations by average linkage (UPGMA), see ClusterTree.  The distances are computed between the
+	 * unique sites only, by the threads set by setParallelism, and held in single precision.  Locations whose
+	 * coordinates are not valid are left out of the tree.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement of the distances, and of the heights of the tree
+	 * @return							The tree, null if no location is loaded, the units are not known or the distances between the sites do not fit in an array
+	 */
+	public ClusterTree clusterTree(double spheroidRadius, String units) {
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		if( rawData.isEmpty() || distanceUnit == null || !ClusterTree.fits(rawData.sites().count()))
+			return null;
+		
+		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
+		return new ClusterTree(rawData, SFE.unitScale(distanceUnit), cvParallelism);
+	}
+	
+	/**
+	 * Summarizes the distances between all pairs of locations without storing or writing the matrix: their count,
+	 * minimum, maximum, mean and variance, a histogram of distance classes and approximate quantiles, see
+	 * DistanceStatistics.  Each pair is counted once and the diagonal is left out.  The distances are folded into one
+	 * summary per thread set by setParallelism, merged at the end, see StatisticsCollector.
+	 * 
+	 * @param spheroidRadius			Radius of spherical representation of the earth.  Currently assumed to be in meters
+	 * @param units						The unit of measurement for the resulting distances
+	 * @param classWidth				Width of the distance classes of the histogram, in units
+	 * @return							The summary, null if no location is loaded or the units are not known
+	 * @throws IllegalArgumentException	If the class width is not positive or too small, see DistanceStatistics.MAXIMUM_CLASSES
+	 */
+	public DistanceStatistics generateStatistics(double spheroidRadius, String units, double classWidth) {
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		if( rawData.isEmpty() || distanceUnit == null)
+			return null;
+		
+		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
+		if( cvProgressBar != null) { cvProgressBar.setVisible( true ); }
+		try {
+			return new StatisticsCollector(rawData, cvParallelism).collect(SFE.unitScale(distanceUnit), classWidth, cvProgressBar);
+		}
+		finally {
+			if( cvProgressBar != null) { cvProgressBar.setVisible( false ); }
+		}
+	}
+	
+	/**
+	 * @param output			Destination of the rows, null when the matrix is kept in memory
+	 * @return					Largest lower triangle cache, in bytes, see setMirroringMemoryLimit
+	 */
+	private long mirroringLimit(Writer output) {
+		return output == null ? Math.max(cvMirroringMemoryLimit, Runtime.getRuntime().maxMemory() / 4) : cvMirroringMemoryLimit;
+	}
+	
+	/**
+	 * Writes the contents of a buffer to a channel and clears the buffer
+	 */
+	private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+	
+	/**
+	 * @param columns					Locations of the columns
+	 * @return							The labels of the columns, each preceded by a tab
+	 */
+	private String headerRow(MatrixFormat format, LocationTable columns) {
+		StringBuilder rowData = new StringBuilder();
+		for(int x = 0; x < format.headerLength(columns.size()); x++)
+			rowData.append('\t').append(columns.label(x));
+		return rowData.toString();
+	}
+	
+	/**
+	 * Shared implementation of the generateMatrix and generateCrossMatrix methods
+	 * 
+	 * @param output					Destination of the rows or null to store the rows in outputMatrix
+	 * @param columns					Locations of the columns, rawData or, for a cross matrix, cvReferenceData
+	 */
+	private boolean generate(double spheroidRadius, String units, String outputFormat, Writer output, LocationTable columns) throws IOException {
+		/*
+		 * Resolve the units once rather than for every cell of the matrix
+		 */
+		DistanceUnit distanceUnit = DistanceUnit.fromAbbreviation(units);
+		if( rawData.isEmpty() || columns.isEmpty() || distanceUnit == null)
+			return false;
+		
+		if( cvProgressBar != null)
+		{
+			cvProgressBar.setOverallMinimum( 0 );
+			cvProgressBar.setOverallMaximum( rawData.size() - 1 );
+			cvProgressBar.setOverallValue( 0 );
+			cvProgressBar.setRowMinimum( 0 );
+			cvProgressBar.setRowMaximum( rawData.size() - 1 );
+			cvProgressBar.setRowValue( 0 );
+			cvProgressBar.setVisible( true );
+			
+		}
+		
+		outputMatrix.clear();
+		SphericalFunctionEngine SFE = new SphericalFunctionEngine(spheroidRadius);
+		MatrixFormat format = MatrixFormat.fromName(outputFormat);
+		ForkJoinPool pool = null;
+		try {
+			if(format != null) {
+				int size = rawData.size();
+				
+				String rowData = headerRow(format, columns);
+				if(output == null)
+					outputMatrix.add(rowData);
+				else
+					output.append(rowData).append('\n');
+				
+				/*
+				 * Rows are computed in bands of tiles, see MatrixBand
+				 */
+				double scale = SFE.unitScale(distanceUnit);
+				int decimals = distanceUnit.isAngular() ? 9 : 2;
+				MatrixBand band = new MatrixBand(rawData, columns, format, scale, decimals, MatrixBand.TILE_SIZE);
+				if(cvParallelism > 1)
+					pool = new ForkJoinPool(cvParallelism);
+				
+				/*
+				 * When many locations share their coordinates compute the distances between unique sites only,
+				 * otherwise a full matrix is symmetric, compute and format the lower triangle once then mirror it
+				 */
+				if(columns.sites().worthwhile())
+					band.deduplicateSites();
+				else if(format == MatrixFormat.FULL_MATRIX && columns == rawData && MatrixBand.mirroringMemory(size, scale, decimals) <= mirroringLimit(output)) {
+					band.enableMirroring();
+					for(int bandStart = 0; bandStart < size; bandStart += MatrixBand.TILE_SIZE) {
+						if( cvProgressBar != null) { cvProgressBar.setRowValue( bandStart ); }
+						band.cacheLowerTriangle(bandStart, Math.min(size, bandStart + MatrixBand.TILE_SIZE), pool);
 					}
-					else if(lr.isValid && lr2.isValid) {
-						distance = SFE.greatCircleDistance(lr.longitude, lr.latitude, lr2.longitude, lr2.latitude, units);
-						rowData = rowData+"\t"+formatter.format(distance);
+				}
+				for(int bandStart = format.firstRow(); bandStart < size; bandStart += MatrixBand.TILE_SIZE) {
+					int bandEnd = Math.min(size, bandStart + MatrixBand.TILE_SIZE);
+					band.compute(bandStart, bandEnd, pool);
+					for(int y = bandStart; y < bandEnd; y++) {
+						if( cvProgressBar != null) { cvProgressBar.setOverallValue( y ); }
+						if(output == null)
+							outputMatrix.add(band.row(y));
+						else
+							band.writeRow(y, output);
 					}
-					else
-						rowData = rowData+"\tERROR";
 				}
-				outputMatrix.add(rowData);
 			}
 		}
-
-		if( cvProgressBar != null) { cvProgressBar.setVisible( false ); }
-		return outputMatrix;		
+		finally {
+			if(pool != null)
+				pool.shutdown();
+			if( cvProgressBar != null) { cvProgressBar.setVisible( false ); }
+		}
+		return true;
 	}
 
 	/**
 	 * Opens the input file, and check to make sure that each line only has three tokens.  The expected format of the input file is
-	 * Label, Latitude, Longitude.
+	 * Label, Latitude, Longitude.  The file is parsed in parallel, see LocationFileParser.  The reason of a failure is
+	 * available from loadError.
 	 * 
-	 * @param mainWindow		The main application window
 	 * @param filename			The name of the input file to load
 	 * @return					True or false on successful load
 	 */
-	public boolean loadFromFile(JFrame mainWindow, String filename) {
+	public boolean loadFromFile(String filename) {
 		cvDataLoaded = false;
-		BufferedReader inputStream;
+		rawData = LocationTable.empty();
+		LocationTable table = parse(filename);
+		if(table == null)
+			return false;
+		rawData = table;
+		cvDataLoaded = true;
+		return true;
+	}
+	
+	/**
+	 * Opens a second input file, in the same format as for loadFromFile, whose locations are the columns of the cross
+	 * matrix and the candidates of generateCrossNearestNeighbours.  The reason of a failure is available from loadError.
+	 * 
+	 * @param filename			The name of the input file to load
+	 * @return					True or false on successful load
+	 */
+	public boolean loadReferencesFromFile(String filename) {
+		cvReferenceData = LocationTable.empty();
+		LocationTable table = parse(filename);
+		if(table == null)
+			return false;
+		cvReferenceData = table;
+		return true;
+	}
+	
+	/**
+	 * Parses an input file, see LocationFileParser
+	 * 
+	 * @param filename			The name of the input file to load
+	 * @return					The locations, null if the file could not be loaded, see loadError
+	 */
+	private LocationTable parse(String filename) {
+		cvLoadError = null;
+		LocationFileParser parser = new LocationFileParser(cvParallelism);
         try {
-        	rawData = new Vector<LocationRecord>();
-            inputStream = new BufferedReader(new FileReader(filename));
-            String[] tokens;
-            String inputLine = inputStream.readLine();
-            while(inputLine != null) {
-            	tokens = inputLine.split("[\t,]");
-            	if(tokens.length != 3) {
-            		JOptionPane.showMessageDialog(mainWindow, "ERROR: [Data Format] Exactly three tokens per line are expected from the input file, "+ tokens.length +" were encountered.","Error", JOptionPane.WARNING_MESSAGE);
-            		return false;
-            	}
-
-            	rawData.add(new LocationRecord(tokens));
-            	inputLine = inputStream.readLine();
-            }
+        	if(!parser.parse(filename)) {
+        		cvLoadError = "ERROR: [Data Format] Exactly three tokens per line are expected from the input file, "+ parser.invalidTokenCount() +" were encountered.";
+        		return null;
+        	}
         }
         catch (FileNotFoundException e) {
-        	JOptionPane.showMessageDialog(mainWindow, "ERROR: [File Not Found] The input file ["+ filename+"] could not be found.","Error", JOptionPane.WARNING_MESSAGE);
-        	return false;
+        	cvLoadError = "ERROR: [File Not Found] The input file ["+ filename+"] could not be found.";
+        	return null;
         }
         catch (IOException e) {
-        	JOptionPane.showMessageDialog(mainWindow, "ERROR: [I/O Exception] A problem was encountered while reading your input file.","Error", JOptionPane.WARNING_MESSAGE);
-        	return false;
-        }	
-        
-        cvDataLoaded = true;
-		return true;
+        	cvLoadError = "ERROR: [I/O Exception] A problem was encountered while reading your input file.";
+        	return null;
+        }
+        return parser.table();
+	}
+	
+	/**
+	 * @return					Description of the problem encountered by the last call to loadFromFile, null if it succeeded
+	 */
+	public String loadError()
+	{
+		return cvLoadError;
+	}
+	
+	/**
+	 * @return					The locations loaded from the input file, the table can be shared among threads
+	 */
+	public LocationTable locations()
+	{
+		return rawData;
+	}
+	
+	/**
+	 * @return					The locations loaded by loadReferencesFromFile
+	 */
+	public LocationTable referenceLocations()
+	{
+		return cvReferenceData;
+	}
+	
+	/**
+	 * @return					Number of distinct coordinates among the valid locations loaded from the input file
+	 */
+	public int siteCount()
+	{
+		return rawData.sites().count();
+	}
+	
+	/**
+	 * The matrix generators compute the distances between unique sites only, rather than between locations, when
+	 * there are at least two valid locations per site on average.
+	 * 
+	 * @return					Number of valid locations per distinct coordinates, 1 when no two locations share their coordinates
+	 */
+	public double siteCompressionRatio()
+	{
+		return rawData.sites().compressionRatio();
+	}
+	
+	/**
+	 * @return					Number of locations loaded from the input file
+	 */
+	public int locationCount()
+	{
+		return rawData.size();
 	}
 	
 	public Vector<String> matrix()
@@ -42,18 +42,14 @@ import java.awt.event.ActionListener;
 
 import java.lang.Object;
 
-import java.util.Vector;
-import java.util.Observer;
-import java.util.Observable;
-
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JTable;
 import javax.swing.JButton;
-import javax.swing.JTextArea;
 import javax.swing.JComboBox;
 import javax.swing.JTextField;
 import javax.swing.JOptionPane;
@@ -62,17 +58,14 @@ import javax.swing.ButtonGroup;
 import javax.swing.JFileChooser;
 import javax.swing.JRadioButton;
 import javax.swing.BorderFactory;
+import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.BufferedWriter;
-
 import org.amnh.cbc.core.VersionCheck;
 import org.amnh.cbc.core.SplashScreen;
 import org.amnh.cbc.core.SimpleFileFilter;
+import org.amnh.cbc.geospatial.DistanceUnit;
 import org.amnh.cbc.geospatial.SphericalFunctionEngine;
 
 /**
@@ -80,7 +73,7 @@ import org.amnh.cbc.geospatial.SphericalFunctionEngine;
  * @author Peter J. Ersts
  *
  */
-public class GeographicDistanceMatrixGeneratorGUI extends JFrame implements ActionListener, ItemListener, DocumentListener, Observer {
+public class GeographicDistanceMatrixGeneratorGUI extends JFrame implements ActionListener, ItemListener, DocumentListener {
 	/* Eclipse generated serialVersionUID */
 	private static final long serialVersionUID = 9133569752162494909L;
 
@@ -117,7 +110,10 @@ public class GeographicDistanceMatrixGeneratorGUI extends JFrame implements Acti
 	private JMenuItem exitItem;
 	private JMenuItem aboutItem;
 	private JMenuItem versionItem;
-	private JTextArea matrixDisplay;
+	/** \brief Table of the matrix, its cells are computed when they are shown, see MatrixTableModel */
+	private JTable matrixDisplay;
+	/** \brief Labels of the rows of matrixDisplay */
+	private JTable rowLabels;
 	private JTextField filename;
 	private JTextField spheroidRadius;							
 	private JComboBox spheroidList;
@@ -150,7 +146,7 @@ public class GeographicDistanceMatrixGeneratorGUI extends JFrame implements Acti
          */
         Dimension defaultDimension = new Dimension(120, 25);
         matrixGenerator = new GeographicDistanceMatrixGeneratorEngine();
-        matrixGenerator.addObserver( this );
+        matrixGenerator.setParallelism( Runtime.getRuntime().availableProcessors() );
         pBar = new ProgressDialog();
         
         fileLoaded = false;
@@ -265,8 +261,15 @@ public class GeographicDistanceMatrixGeneratorGUI extends JFrame implements Acti
         matrixDisplayOptions.add(lowerTriangularDiagonal);
         matrixDisplayOptions.add(lowerTriangular);
         
-        matrixDisplay = new JTextArea();
+        /*
+         * The table only asks for the visible cells, so matrices of any size can be scrolled
+         */
+        matrixDisplay = new MatrixTable(MatrixTableModel.empty());
+        rowLabels = new JTable(MatrixTableModel.empty().rowLabels());
+        rowLabels.setEnabled(false);
+        rowLabels.setPreferredScrollableViewportSize(new Dimension(100, 0));
         JScrollPane scrollPane = new JScrollPane(matrixDisplay, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        scrollPane.setRowHeaderView(rowLabels);
         outputDisplayArea.add(matrixDisplayOptions, BorderLayout.NORTH);
         outputDisplayArea.add(scrollPane, BorderLayout.CENTER);
 
@@ -390,90 +393,114 @@ public class GeographicDistanceMatrixGeneratorGUI extends JFrame implements Acti
     	}
     }
     
-    /**
-     * Required method
-     * Used to alert us that the engine thread has finished running
-     */
-    public void update( Observable obs, Object x)
-    {
-    	browseFileButton.setEnabled( true );
-    	exportButton.setEnabled( true );
-    	fullMatrix.setEnabled( true );
-    	lowerTriangular.setEnabled( true );
-    	lowerTriangularDiagonal.setEnabled( true );
-    	spheroidRadius.setEnabled( true );							
-    	spheroidList.setEnabled( true );
-    	outputDistanceUnits.setEnabled( true );
-    	
-    	displayResults();
-    }
-    
     /*
      * Additional Methods
      */
 
+    /**
+     * Enables or disables the controls while a matrix is being exported
+     */
+    private void setControlsEnabled( boolean isEnabled )
+    {
+    	browseFileButton.setEnabled( isEnabled );
+    	exportButton.setEnabled( isEnabled );
+    	fullMatrix.setEnabled( isEnabled );
+    	lowerTriangular.setEnabled( isEnabled );
+    	lowerTriangularDiagonal.setEnabled( isEnabled );
+    	spheroidRadius.setEnabled( isEnabled );
+    	spheroidList.setEnabled( isEnabled );
+    	outputDistanceUnits.setEnabled( isEnabled );
+    }
     
     /**
-     * 
+     * Shows a matrix in the table, the cells are computed by the MatrixTableModel as they are scrolled into view
      */
-    private void displayResults()
+    private void displayResults( MatrixTableModel model )
     {
-    	if( matrixGenerator.matrixSize() > 100 )
-    	{
-    		matrixDisplay.append( "Matrix too large to display, click the export button to save your matrix." );
-    	}
-    	else
-    	{
-    		Vector<String> 	matrix = matrixGenerator.matrix();
-    		matrixDisplay.setText("");
-    		for (int x = 0; x < matrix.size(); x++)
-    			matrixDisplay.append(matrix.elementAt(x)+"\n");
-    	}
+    	matrixDisplay.setModel( model );
+    	rowLabels.setModel( model.rowLabels() );
     }
     
+    /**
+     * Generates the matrix straight into a file on a worker thread, the matrix is never held in memory.  The file is
+     * gzip compressed when its name ends with .txt.gz.
+     */
     private boolean exportResults() {
+    	if(!fileLoaded) {
+    		JOptionPane.showMessageDialog(this, "Error [Export Error] No location file is loaded","Error", JOptionPane.WARNING_MESSAGE);
+    		return false;
+    	}
+    	if(Double.isNaN(spheroidRadius()))
+    		return false;
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.addChoosableFileFilter(new SimpleFileFilter(".txt", "Text Files"));
         fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
         if(fileChooser.showSaveDialog(this) != JFileChooser.CANCEL_OPTION) {
-        	String filename;
-        		if(fileChooser.getSelectedFile().getName().toLowerCase().endsWith(".txt"))
+        	final String filename;
+        		String name = fileChooser.getSelectedFile().getName().toLowerCase();
+        		if(name.endsWith(".txt") || name.endsWith(".txt" + GeographicDistanceMatrixGeneratorEngine.COMPRESSED_EXTENSION))
         			filename = fileChooser.getSelectedFile().getAbsolutePath();
         		else
         			filename = fileChooser.getSelectedFile().getAbsolutePath()+".txt";
         		
-        		if( matrixGenerator.exportResults( filename) )
-        			JOptionPane.showMessageDialog(this, "Export complete!","Export Stats", JOptionPane.INFORMATION_MESSAGE);
-        		else
-        			JOptionPane.showMessageDialog(this, "Error [Export Error] An error was encountered while writing the matrix to a file","Error", JOptionPane.WARNING_MESSAGE);
+        		final double radius = spheroidRadius();
+        		final String units = distanceUnits[outputDistanceUnits.getSelectedIndex()][1];
+        		final String format = matrixDisplayOptionsGroup.getSelection().getActionCommand();
+        		setControlsEnabled( false );
+        		matrixGenerator.init(radius, units, format, pBar );
+        		Thread workerThread = new Thread( new Runnable() {
+        			public void run() {
+        				final boolean exported = matrixGenerator.exportMatrix( filename, radius, units, format );
+        				SwingUtilities.invokeLater( new Runnable() {
+        					public void run() {
+        						setControlsEnabled( true );
+        						if( exported )
+        							JOptionPane.showMessageDialog(GeographicDistanceMatrixGeneratorGUI.this, "Export complete!","Export Stats", JOptionPane.INFORMATION_MESSAGE);
+        						else
+        							JOptionPane.showMessageDialog(GeographicDistanceMatrixGeneratorGUI.this, "Error [Export Error] An error was encountered while writing the matrix to a file","Error", JOptionPane.WARNING_MESSAGE);
+        					}
+        				});
+        			}
+        		}, "ExportThread" );
+        		workerThread.start();
         }
     	return true;
     }
     
     /**
-     * Call GeographicDistanceMatrixEngine.generateMatrix method and displays the resulting matrix
+     * Displays the matrix for the current parameters.  Nothing is computed until cells are shown.
      * 
      */
     private boolean generateMatrix() {
-    	if(Double.parseDouble(spheroidRadius.getText()) < 6300000) {
-    		JOptionPane.showMessageDialog(this, "Error [Parameter Error] Your Spheroid Radius is unrealalistically small","Error", JOptionPane.WARNING_MESSAGE);
+    	double radius = spheroidRadius();
+    	if(Double.isNaN(radius))
     		return false;
-    	}
-    	browseFileButton.setEnabled( false );
-    	exportButton.setEnabled( false );
-    	fullMatrix.setEnabled( false );
-    	lowerTriangular.setEnabled( false );
-    	lowerTriangularDiagonal.setEnabled( false );
-    	spheroidRadius.setEnabled( false );							
-    	spheroidList.setEnabled( false );
-    	outputDistanceUnits.setEnabled( false );
-    	
-    	matrixGenerator.init(Double.parseDouble(spheroidRadius.getText()),distanceUnits[outputDistanceUnits.getSelectedIndex()][1], matrixDisplayOptionsGroup.getSelection().getActionCommand(), pBar );
-    	Thread workerThread = new Thread( matrixGenerator );
-    	workerThread.start();
-    	
+    	DistanceUnit units = DistanceUnit.fromAbbreviation(distanceUnits[outputDistanceUnits.getSelectedIndex()][1]);
+    	MatrixFormat format = MatrixFormat.fromName(matrixDisplayOptionsGroup.getSelection().getActionCommand());
+    	DistanceMatrix matrix = matrixGenerator.distanceMatrix(radius, units.abbreviation());
+    	displayResults( matrix == null ? MatrixTableModel.empty() : new MatrixTableModel(matrix, format, units.isAngular() ? 9 : 2) );
     	return true;
     }
+    
+    /**
+     * Reads the spheroid radius, warning when it is not a number or unrealistically small
+     * @return					The radius, NaN if it can not be used
+     */
+    private double spheroidRadius() {
+    	double radius;
+    	try {
+    		radius = Double.parseDouble(spheroidRadius.getText());
+    	}
+    	catch (NumberFormatException e) {
+    		JOptionPane.showMessageDialog(this, "Error [Parameter Error] Your Spheroid Radius is not a number","Error", JOptionPane.WARNING_MESSAGE);
+    		return Double.NaN;
+    	}
+    	if(!(radius >= 6300000)) {
+    		JOptionPane.showMessageDialog(this, "Error [Parameter Error] Your Spheroid Radius is unrealalistically small","Error", JOptionPane.WARNING_MESSAGE);
+    		return Double.NaN;
+    	}
+    	return radius;
+    }
 
     /**
      * Display file chooser and initialize GeographicDistanceMatrixEngine
@@ -484,13 +511,14 @@ public class GeographicDistanceMatrixGeneratorGUI extends JFrame implements Acti
         fileChooser.addChoosableFileFilter(new SimpleFileFilter(".txt", "Text Files"));
         fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
         if(fileChooser.showOpenDialog(null) != JFileChooser.CANCEL_OPTION) {
-        	if(matrixGenerator.loadFromFile(this, fileChooser.getSelectedFile().getAbsolutePath())) {
+        	if(matrixGenerator.loadFromFile(fileChooser.getSelectedFile().getAbsolutePath())) {
         			filename.setText(fileChooser.getSelectedFile().getAbsolutePath());
         			fileLoaded = true;
         			generateMatrix();
         	}
         	else {
         			fileLoaded = false;
+        			JOptionPane.showMessageDialog(this, matrixGenerator.loadError(),"Error", JOptionPane.WARNING_MESSAGE);
         	}
         		
         }
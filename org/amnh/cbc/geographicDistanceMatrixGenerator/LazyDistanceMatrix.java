@@ -0,0 +1,80 @@
+/*
+** File: LazyDistanceMatrix.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import org.amnh.cbc.geospatial.SphericalFunctionEngine;
+
+/**
+ * Distance matrix computing each distance when it is read, from the unit vectors of the locations prepared by the
+ * LocationTable.  It holds nothing per pair, so it suits matrices too large for memory and sparse access, but each
+ * read costs a central angle; see StoredDistanceMatrix when the distances are read many times.  The distances are
+ * exactly those written by GeographicDistanceMatrixGeneratorEngine.exportBinaryMatrix.
+ * @author Peter J. Ersts
+ *
+ */
+public class LazyDistanceMatrix extends AbstractDistanceMatrix {
+	private final LocationTable locations;
+	private final double scale;
+
+	/**
+	 * Constructor
+	 * @param theLocations		The locations, rows and columns of the matrix
+	 * @param theScale			Radians to unit multiplier of the distances, see SphericalFunctionEngine.unitScale
+	 */
+	public LazyDistanceMatrix(LocationTable theLocations, double theScale) {
+		locations = theLocations;
+		scale = theScale;
+	}
+
+	public int size() {
+		return locations.size();
+	}
+
+	public String label(int index) {
+		return locations.label(index);
+	}
+
+	public double get(int row, int column) {
+		if(row == column)
+			return 0.0;
+		if(!locations.isValid(row) || !locations.isValid(column))
+			return Double.NaN;
+		return SphericalFunctionEngine.centralAngle(locations.x[row], locations.y[row], locations.z[row], locations.x[column], locations.y[column], locations.z[column])*scale;
+	}
+
+	public void getRow(int row, double[] distances) {
+		int size = locations.size();
+		if(!locations.isValid(row)) {
+			for(int x = 0; x < size; x++)
+				distances[x] = Double.NaN;
+		}
+		else {
+			double x1 = locations.x[row], y1 = locations.y[row], z1 = locations.z[row];
+			for(int x = 0; x < size; x++)
+				distances[x] = locations.isValid(x) ? SphericalFunctionEngine.centralAngle(x1, y1, z1, locations.x[x], locations.y[x], locations.z[x])*scale : Double.NaN;
+		}
+		distances[row] = 0.0;
+	}
+}
@@ -0,0 +1,449 @@
+/*
+** File: LocationFileParser.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a location file, one Label, Latitude, Longitude record per line separated by tabs or commas, into a
+ * LocationTable.  The file is memory mapped and split into chunks that end on a new line, the chunks are tokenized at the
+ * byte level in parallel and concatenated in file order.  The result is identical to splitting each line with
+ * String.split("[\t,]"), trimming the label and parsing the coordinates with Double.parseDouble.
+ * @author Peter J. Ersts
+ *
+ */
+class LocationFileParser {
+	/** \brief Smallest chunk worth handing to another thread */
+	private static final int MINIMUM_CHUNK_SIZE = 1 << 20;
+	/** \brief Largest chunk, MappedByteBuffer is limited to 2 GB */
+	private static final int MAXIMUM_CHUNK_SIZE = 1 << 30;
+	/** \brief Powers of ten that are exactly representable as a double */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final int parallelism;
+	private final Charset charset;
+
+	/** \brief Locations of the last file parsed, empty if it could not be parsed */
+	private LocationTable table;
+	/** \brief Number of tokens on the first line that does not have exactly three, -1 if there is none */
+	private int invalidTokenCount;
+
+	/**
+	 * Constructor
+	 * @param theParallelism	Number of threads parsing the file, values less than 2 parse it on the calling thread
+	 */
+	LocationFileParser(int theParallelism) {
+		parallelism = Math.max(1, theParallelism);
+		charset = Charset.defaultCharset();
+		table = LocationTable.empty();
+		invalidTokenCount = -1;
+	}
+
+	/**
+	 * Parses a file, replacing any previously parsed table
+	 * @param filename			The name of the input file
+	 * @return					False if a line does not have exactly three tokens, see invalidTokenCount()
+	 * @throws IOException		If the file can not be found or read
+	 */
+	boolean parse(String filename) throws IOException {
+		table = LocationTable.empty();
+		invalidTokenCount = -1;
+		RandomAccessFile file = new RandomAccessFile(new File(filename), "r");
+		ForkJoinPool pool = null;
+		try {
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			long chunkSize = Math.min(MAXIMUM_CHUNK_SIZE, Math.max(MINIMUM_CHUNK_SIZE, length / (4L * parallelism) + 1));
+
+			/*
+			 * Move each chunk boundary forward to the byte following a new line
+			 */
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			long start = 0;
+			while(start < length) {
+				long end = Math.min(length, start + chunkSize);
+				if(end < length)
+					end = nextLine(channel, end, Math.min(length, start + MAXIMUM_CHUNK_SIZE));
+				chunks.add(new Chunk(channel, start, end));
+				start = end;
+			}
+
+			if(parallelism > 1 && chunks.size() > 1) {
+				pool = new ForkJoinPool(parallelism);
+				for(Future<Chunk> result : pool.invokeAll(chunks))
+					result.get();
+			}
+			else {
+				for(Chunk chunk : chunks)
+					chunk.call();
+			}
+
+			/*
+			 * The first line with the wrong number of tokens stops the load, as it would reading sequentially
+			 */
+			long total = 0;
+			long totalLabelBytes = 0;
+			for(Chunk chunk : chunks) {
+				if(chunk.invalidTokenCount >= 0) {
+					invalidTokenCount = chunk.invalidTokenCount;
+					break;
+				}
+				total += chunk.count;
+				totalLabelBytes += chunk.labelLength;
+			}
+			if(invalidTokenCount >= 0)
+				return false;
+			if(total > Integer.MAX_VALUE - 8 || totalLabelBytes > Integer.MAX_VALUE - 8)
+				throw new IOException("The input file ["+filename+"] has too many locations");
+
+			int size = (int)total;
+			double[] latitudes = new double[size];
+			double[] longitudes = new double[size];
+			BitSet valid = new BitSet(size);
+			byte[] labelBytes = new byte[(int)totalLabelBytes];
+			int[] labelOffsets = new int[size+1];
+			int index = 0;
+			int labelOffset = 0;
+			for(Chunk chunk : chunks) {
+				System.arraycopy(chunk.latitudes, 0, latitudes, index, chunk.count);
+				System.arraycopy(chunk.longitudes, 0, longitudes, index, chunk.count);
+				for(int x = chunk.valid.nextSetBit(0); x >= 0; x = chunk.valid.nextSetBit(x+1))
+					valid.set(index + x);
+				System.arraycopy(chunk.labelBytes, 0, labelBytes, labelOffset, chunk.labelLength);
+				for(int x = 0; x < chunk.count; x++)
+					labelOffsets[index + x] = labelOffset + chunk.labelStarts[x];
+				index += chunk.count;
+				labelOffset += chunk.labelLength;
+			}
+			labelOffsets[size] = labelOffset;
+			table = new LocationTable(size, latitudes, longitudes, valid, labelBytes, labelOffsets, charset);
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading the input file ["+filename+"]");
+		}
+		catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException("A problem was encountered while reading the input file ["+filename+"]", e.getCause());
+		}
+		finally {
+			if(pool != null)
+				pool.shutdown();
+			file.close();
+		}
+	}
+
+	/**
+	 * @return					Locations of the last file parsed, empty if it could not be parsed
+	 */
+	LocationTable table() {
+		return table;
+	}
+
+	/**
+	 * @return					Number of tokens on the first line that does not have exactly three, -1 if there is none
+	 */
+	int invalidTokenCount() {
+		return invalidTokenCount;
+	}
+
+	/**
+	 * @param channel			The input file
+	 * @param position			Position to start searching from
+	 * @param limit				Position at which to give up
+	 * @return					Position following the first new line at or after position, limit if there is none
+	 */
+	private static long nextLine(FileChannel channel, long position, long limit) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		while(position < limit) {
+			buffer.clear();
+			if(buffer.remaining() > limit - position)
+				buffer.limit((int)(limit - position));
+			int read = channel.read(buffer, position);
+			if(read <= 0)
+				return limit;
+			for(int x = 0; x < read; x++)
+				if(buffer.get(x) == '\n')
+					return position + x + 1;
+			position += read;
+		}
+		return limit;
+	}
+
+	/**
+	 * Parses a coordinate, equivalent to Double.parseDouble on the trimmed text.  Plain decimal numbers with at most
+	 * 15 significant digits and a small exponent are converted exactly by one multiplication or division, anything
+	 * else (more digits, NaN, Infinity, hexadecimal, type suffixes or errors) falls back to Double.parseDouble.
+	 * @param data				The bytes holding the text
+	 * @param start				Index of the first byte, leading and trailing white space already removed
+	 * @param end				Index following the last byte
+	 * @return					The value
+	 * @throws NumberFormatException	If the text is not a number
+	 */
+	static double parseDouble(ByteBuffer data, int start, int end) {
+		int x = start;
+		boolean negative = false;
+		if(x < end && (data.get(x) == '-' || data.get(x) == '+')) {
+			negative = data.get(x) == '-';
+			x++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		for(; x < end; x++) {
+			int digit = data.get(x) - '0';
+			if(digit < 0 || digit > 9)
+				break;
+			digits++;
+			if(mantissa != 0 || digit != 0) {
+				mantissa = mantissa * 10 + digit;
+				significantDigits++;
+			}
+			if(significantDigits > 15)
+				return fallback(data, start, end);
+		}
+		if(x < end && data.get(x) == '.') {
+			for(x++; x < end; x++) {
+				int digit = data.get(x) - '0';
+				if(digit < 0 || digit > 9)
+					break;
+				digits++;
+				exponent--;
+				if(mantissa != 0 || digit != 0) {
+					mantissa = mantissa * 10 + digit;
+					significantDigits++;
+				}
+				if(significantDigits > 15)
+					return fallback(data, start, end);
+			}
+		}
+		if(digits == 0)
+			return fallback(data, start, end);
+		if(x < end && (data.get(x) == 'e' || data.get(x) == 'E')) {
+			x++;
+			boolean negativeExponent = false;
+			if(x < end && (data.get(x) == '-' || data.get(x) == '+')) {
+				negativeExponent = data.get(x) == '-';
+				x++;
+			}
+			int exponentDigits = 0;
+			int explicitExponent = 0;
+			for(; x < end; x++) {
+				int digit = data.get(x) - '0';
+				if(digit < 0 || digit > 9)
+					break;
+				exponentDigits++;
+				if(explicitExponent > 1000)
+					return fallback(data, start, end);
+				explicitExponent = explicitExponent * 10 + digit;
+			}
+			if(exponentDigits == 0)
+				return fallback(data, start, end);
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		if(x != end)
+			return fallback(data, start, end);
+
+		double value;
+		if(mantissa == 0)
+			value = 0.0;
+		else if(exponent >= 0 && exponent < POWERS_OF_TEN.length)
+			value = mantissa * POWERS_OF_TEN[exponent];
+		else if(exponent < 0 && -exponent < POWERS_OF_TEN.length)
+			value = mantissa / POWERS_OF_TEN[-exponent];
+		else
+			return fallback(data, start, end);
+		return negative ? -value : value;
+	}
+
+	private static double fallback(ByteBuffer data, int start, int end) {
+		byte[] text = new byte[end - start];
+		for(int x = start; x < end; x++)
+			text[x - start] = data.get(x);
+		return Double.parseDouble(new String(text, StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Locations parsed from a part of the file that ends on a new line
+	 */
+	private class Chunk implements Callable<Chunk> {
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+
+		int count;
+		double[] latitudes;
+		double[] longitudes;
+		BitSet valid;
+		byte[] labelBytes;
+		int labelLength;
+		int[] labelStarts;
+		int invalidTokenCount;
+
+		Chunk(FileChannel theChannel, long theStart, long theEnd) {
+			channel = theChannel;
+			start = theStart;
+			end = theEnd;
+			invalidTokenCount = -1;
+		}
+
+		public Chunk call() throws IOException {
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			int length = (int)(end - start);
+			int capacity = Math.max(16, length / 32);
+			latitudes = new double[capacity];
+			longitudes = new double[capacity];
+			labelStarts = new int[capacity];
+			labelBytes = new byte[Math.max(16, length / 8)];
+			valid = new BitSet(capacity);
+			int[] fieldStarts = new int[3];
+			int[] fieldEnds = new int[3];
+
+			int x = 0;
+			while(x < length) {
+				/*
+				 * Tokenize one line, String.split drops trailing empty tokens and an empty line has one token
+				 */
+				int lineStart = x;
+				int fields = 0;
+				int nonEmptyFields = 0;
+				int fieldStart = x;
+				byte b = 0;
+				for(; x < length; x++) {
+					b = data.get(x);
+					if(b == '\n' || b == '\r')
+						break;
+					if(b == '\t' || b == ',') {
+						if(fields < 3) {
+							fieldStarts[fields] = fieldStart;
+							fieldEnds[fields] = x;
+						}
+						fields++;
+						if(x > fieldStart)
+							nonEmptyFields = fields;
+						fieldStart = x+1;
+					}
+				}
+				if(fields < 3) {
+					fieldStarts[fields] = fieldStart;
+					fieldEnds[fields] = x;
+				}
+				fields++;
+				if(x > fieldStart)
+					nonEmptyFields = fields;
+				int tokens = x == lineStart ? 1 : nonEmptyFields;
+
+				if(x < length) {
+					x++;
+					if(b == '\r' && x < length && data.get(x) == '\n')
+						x++;
+				}
+
+				if(tokens != 3) {
+					invalidTokenCount = tokens;
+					return this;
+				}
+
+				if(count == latitudes.length) {
+					int grown = count + (count >> 1);
+					latitudes = Arrays.copyOf(latitudes, grown);
+					longitudes = Arrays.copyOf(longitudes, grown);
+					labelStarts = Arrays.copyOf(labelStarts, grown);
+				}
+
+				int labelStart = trimStart(data, fieldStarts[0], fieldEnds[0]);
+				int labelEnd = trimEnd(data, labelStart, fieldEnds[0]);
+				if(labelLength + labelEnd - labelStart > labelBytes.length)
+					labelBytes = Arrays.copyOf(labelBytes, Math.max(labelBytes.length + (labelBytes.length >> 1), labelLength + labelEnd - labelStart));
+				labelStarts[count] = labelLength;
+				for(int y = labelStart; y < labelEnd; y++)
+					labelBytes[labelLength++] = data.get(y);
+
+				boolean isValid = true;
+				try {
+					latitudes[count] = parseCoordinate(data, fieldStarts[1], fieldEnds[1]);
+				}
+				catch (NumberFormatException e) {
+					latitudes[count] = LocationTable.INVALID_COORDINATE;
+					isValid = false;
+				}
+				try {
+					longitudes[count] = parseCoordinate(data, fieldStarts[2], fieldEnds[2]);
+				}
+				catch (NumberFormatException e) {
+					longitudes[count] = LocationTable.INVALID_COORDINATE;
+					isValid = false;
+				}
+				if(isValid)
+					valid.set(count);
+				count++;
+			}
+			return this;
+		}
+	}
+
+	private static double parseCoordinate(ByteBuffer data, int start, int end) {
+		start = trimStart(data, start, end);
+		return parseDouble(data, start, trimEnd(data, start, end));
+	}
+
+	/**
+	 * @return					Index of the first byte that is not white space, as defined by String.trim
+	 */
+	private static int trimStart(ByteBuffer data, int start, int end) {
+		while(start < end && (data.get(start) & 0xff) <= ' ')
+			start++;
+		return start;
+	}
+
+	/**
+	 * @return					Index following the last byte that is not white space, as defined by String.trim
+	 */
+	private static int trimEnd(ByteBuffer data, int start, int end) {
+		while(end > start && (data.get(end-1) & 0xff) <= ' ')
+			end--;
+		return end;
+	}
+}
@@ -0,0 +1,271 @@
+/*
+** File: LocationTable.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.amnh.cbc.geospatial.PreparedPoint;
+import org.amnh.cbc.geospatial.UnitVectorTree;
+
+/**
+ * The locations loaded from an input file, stored by column rather than as one object per location.  Coordinates
+ * are kept in parallel arrays together with the earth centered unit vector of each valid location, validity in a
+ * BitSet and the labels encoded one after the other in a single byte array.  A table is never modified once it has
+ * been built, apart from the spatial and site indices created on first use, so it can be shared among threads.
+ * @author Peter J. Ersts
+ *
+ */
+public final class LocationTable {
+	/** \brief Coordinate stored when a value is not a number */
+	public static final double INVALID_COORDINATE = -9999;
+
+	private final int size;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final BitSet valid;
+	private final byte[] labelBytes;
+	/** \brief Start of each label in labelBytes, the last entry is the total length of the labels */
+	private final int[] labelOffsets;
+	private final Charset charset;
+	/** \brief Earth centered, earth fixed unit vector of each location, as in PreparedPoint, NaN if it is not valid */
+	final double[] x;
+	final double[] y;
+	final double[] z;
+	/** \brief Spatial index of the valid locations, built on first use */
+	private volatile UnitVectorTree tree;
+	/** \brief Unique coordinates of the valid locations, built on first use */
+	private volatile SiteIndex sites;
+
+	/**
+	 * Constructor, the arrays are owned by the table afterwards and must not be modified
+	 * @param theSize			Number of locations
+	 * @param theLatitudes		Latitude of each location, INVALID_COORDINATE if it is not a number
+	 * @param theLongitudes		Longitude of each location, INVALID_COORDINATE if it is not a number
+	 * @param theValid			Set bit for each location whose latitude and longitude are both numbers
+	 * @param theLabelBytes		Encoded labels of all locations, one after the other
+	 * @param theLabelOffsets	Start of each label in theLabelBytes, followed by the total length of the labels
+	 * @param theCharset		Character set of the encoded labels
+	 */
+	LocationTable(int theSize, double[] theLatitudes, double[] theLongitudes, BitSet theValid, byte[] theLabelBytes, int[] theLabelOffsets, Charset theCharset) {
+		size = theSize;
+		latitudes = theLatitudes;
+		longitudes = theLongitudes;
+		valid = theValid;
+		labelBytes = theLabelBytes;
+		labelOffsets = theLabelOffsets;
+		charset = theCharset;
+		x = new double[size];
+		y = new double[size];
+		z = new double[size];
+		for(int index = 0; index < size; index++) {
+			if(!valid.get(index)) {
+				x[index] = y[index] = z[index] = Double.NaN;
+				continue;
+			}
+			/*
+			 * Same operations as PreparedPoint so distances do not depend on which form is used
+			 */
+			double sinLatitude = Math.sin(Math.toRadians(latitudes[index]));
+			double cosLatitude = Math.cos(Math.toRadians(latitudes[index]));
+			x[index] = cosLatitude*Math.cos(Math.toRadians(longitudes[index]));
+			y[index] = cosLatitude*Math.sin(Math.toRadians(longitudes[index]));
+			z[index] = sinLatitude;
+		}
+	}
+
+	/**
+	 * @return					An empty table
+	 */
+	static LocationTable empty() {
+		return new LocationTable(0, new double[0], new double[0], new BitSet(), new byte[0], new int[1], Charset.defaultCharset());
+	}
+
+	/**
+	 * Builds a table holding the locations of a table followed by the locations of another one
+	 * @param first				The first locations
+	 * @param second			The locations following them
+	 * @return					A new table, whose labels are encoded in the character set of first
+	 */
+	static LocationTable concatenate(LocationTable first, LocationTable second) {
+		int size = first.size + second.size;
+		byte[] secondBytes = second.labelBytes;
+		int[] secondOffsets = second.labelOffsets;
+		if(!second.charset.equals(first.charset)) {
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			secondOffsets = new int[second.size + 1];
+			for(int index = 0; index < second.size; index++) {
+				byte[] label = second.label(index).getBytes(first.charset);
+				encoded.write(label, 0, label.length);
+				secondOffsets[index+1] = encoded.size();
+			}
+			secondBytes = encoded.toByteArray();
+		}
+		int firstLength = first.labelOffsets[first.size];
+		int secondLength = secondOffsets[second.size];
+		byte[] labelBytes = Arrays.copyOf(first.labelBytes, firstLength + secondLength);
+		System.arraycopy(secondBytes, secondOffsets[0], labelBytes, firstLength, secondLength - secondOffsets[0]);
+		int[] labelOffsets = Arrays.copyOf(first.labelOffsets, size + 1);
+		for(int index = 1; index <= second.size; index++)
+			labelOffsets[first.size + index] = firstLength + secondOffsets[index] - secondOffsets[0];
+
+		double[] latitudes = Arrays.copyOf(first.latitudes, size);
+		double[] longitudes = Arrays.copyOf(first.longitudes, size);
+		System.arraycopy(second.latitudes, 0, latitudes, first.size, second.size);
+		System.arraycopy(second.longitudes, 0, longitudes, first.size, second.size);
+		BitSet valid = (BitSet)first.valid.clone();
+		for(int index = second.valid.nextSetBit(0); index >= 0; index = second.valid.nextSetBit(index+1))
+			valid.set(first.size + index);
+		return new LocationTable(size, latitudes, longitudes, valid, labelBytes, labelOffsets, first.charset);
+	}
+
+	/**
+	 * @return					Number of locations
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return					True if there are no locations
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					The latitude, expressed in decimal degrees, INVALID_COORDINATE if it is not a number
+	 */
+	public double latitude(int index) {
+		return latitudes[index];
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					The longitude, expressed in decimal degrees, INVALID_COORDINATE if it is not a number
+	 */
+	public double longitude(int index) {
+		return longitudes[index];
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					True if both the latitude and the longitude of the location are numbers
+	 */
+	public boolean isValid(int index) {
+		return valid.get(index);
+	}
+
+	/**
+	 * @return					Number of valid locations
+	 */
+	public int validCount() {
+		return valid.cardinality();
+	}
+
+	/**
+	 * Decodes the label of a location, a new String is returned by every call
+	 * @param index				Index of a location
+	 * @return					The label, trimmed
+	 */
+	public String label(int index) {
+		return new String(labelBytes, labelOffsets[index], labelOffsets[index+1] - labelOffsets[index], charset);
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					Room, in characters, needed by copyLabel for the label of the location
+	 */
+	int labelCapacity(int index) {
+		return labelOffsets[index+1] - labelOffsets[index];
+	}
+
+	/**
+	 * Copies the label of a location into a char array without creating a String when the label is ASCII
+	 * @param index				Index of a location
+	 * @param buffer			Destination, with room for labelCapacity(index) characters at offset
+	 * @param offset			Index of the first character written
+	 * @return					The index following the last character written
+	 */
+	int copyLabel(int index, char[] buffer, int offset) {
+		int start = labelOffsets[index];
+		int end = labelOffsets[index+1];
+		for(int n = start; n < end; n++) {
+			if(labelBytes[n] < 0) {
+				String label = label(index);
+				label.getChars(0, label.length(), buffer, offset);
+				return offset + label.length();
+			}
+		}
+		for(int n = start; n < end; n++)
+			buffer[offset++] = (char)labelBytes[n];
+		return offset;
+	}
+
+	/**
+	 * @return					Spatial index of the valid locations, built the first time it is needed
+	 */
+	UnitVectorTree tree() {
+		UnitVectorTree result = tree;
+		if(result == null) {
+			synchronized(this) {
+				result = tree;
+				if(result == null) {
+					int[] indices = new int[validCount()];
+					for(int n = valid.nextSetBit(0), count = 0; n >= 0; n = valid.nextSetBit(n+1))
+						indices[count++] = n;
+					tree = result = new UnitVectorTree(x, y, z, indices);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return					Unique sites of the valid locations, found the first time they are needed
+	 */
+	SiteIndex sites() {
+		SiteIndex result = sites;
+		if(result == null) {
+			synchronized(this) {
+				result = sites;
+				if(result == null)
+					sites = result = new SiteIndex(this);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					The location prepared for the PreparedPoint methods of the SphericalFunctionEngine, null if it is not valid
+	 */
+	public PreparedPoint preparedPoint(int index) {
+		return valid.get(index) ? new PreparedPoint(longitudes[index], latitudes[index]) : null;
+	}
+}
@@ -0,0 +1,449 @@
+/*
+** File: MantelTest.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.ParsePosition;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Mantel test of the correlation between two distance matrices of the same locations, e.g., the geographic distances
+ * of GeographicDistanceMatrixGeneratorEngine.condensedMatrix and genetic distances.  Both matrices are condensed: the
+ * distances below the diagonal, row by row, the distance between locations i and j, j < i, at index i(i-1)/2 + j.
+ *
+ * The statistic is the Pearson correlation of the distances of all pairs.  Its significance is the share of random
+ * permutations of the locations of the second matrix whose correlation is at least the observed one.  A permutation
+ * only reorders the distances of the second matrix, their mean and variance do not change, so each permuted
+ * correlation is a single cross product of the first matrix with the second read through the permuted indices; no
+ * permuted matrix is ever built.  The second matrix is kept centered and square, one array per row, so the
+ * distances of a permuted row are always read from a single array rather than from a column of the condensed
+ * matrix, which costs twice the memory of the condensed matrix but a cache miss per distance less.  The
+ * permutations are drawn in streams of PERMUTATIONS_PER_STREAM, each with its own random number generator split
+ * from the seed in order, and the streams are shared among the threads of a ForkJoinPool, so the p-value for a seed
+ * does not depend on the number of threads.
+ *
+ * Locations are left out until no distance between the others is missing (NaN) in either matrix, the location with
+ * the most missing distances first, so a location whose coordinates are not valid is left out wherever it is in the
+ * matrices.  Instances can be shared among threads.
+ * @author Peter J. Ersts
+ *
+ */
+public class MantelTest {
+	/** \brief Number of permutations drawn from each random number stream */
+	static final int PERMUTATIONS_PER_STREAM = 8;
+	/** \brief Permuted correlations lower than the observed one by at most this much are counted as equal to it */
+	private static final double TOLERANCE = 1e-10;
+
+	private final double[] first;
+	/** \brief Index of the first distance of each row in the condensed matrices, i(i-1)/2 */
+	private final int[] rowStarts;
+	/** \brief The locations that take part in the test, in order */
+	private final int[] kept;
+	/** \brief Centered distances of the second matrix between the kept locations, [i][j] for all i and j */
+	private final double[][] centered;
+	/** \brief Square root of the product of the sums of squared deviations of the two matrices */
+	private final double denominator;
+
+	/**
+	 * Constructor
+	 * @param theFirst			Condensed distances of the first matrix
+	 * @param theSecond			Condensed distances of the second matrix, for the same locations in the same order
+	 * @param theSize			Number of locations
+	 * @throws IllegalArgumentException	If a matrix does not hold theSize(theSize-1)/2 distances
+	 */
+	public MantelTest(double[] theFirst, double[] theSecond, int theSize) {
+		this(theFirst, theSecond, theSize, null);
+	}
+
+	/**
+	 * Constructor only testing some of the locations
+	 * @param theFirst			Condensed distances of the first matrix
+	 * @param theSecond			Condensed distances of the second matrix, for the same locations in the same order
+	 * @param theSize			Number of locations
+	 * @param theCandidates		Locations that may take part in the test, e.g., those with valid coordinates, null for all
+	 * @throws IllegalArgumentException	If a matrix does not hold theSize(theSize-1)/2 distances
+	 */
+	MantelTest(double[] theFirst, double[] theSecond, int theSize, boolean[] theCandidates) {
+		if(theFirst.length != StoredDistanceMatrix.pairCount(theSize) || theSecond.length != StoredDistanceMatrix.pairCount(theSize))
+			throw new IllegalArgumentException("The matrices must both hold the " + StoredDistanceMatrix.pairCount(theSize) + " distances of " + theSize + " locations");
+		first = theFirst;
+		rowStarts = new int[theSize];
+		for(int x = 0; x < theSize; x++)
+			rowStarts[x] = (int)StoredDistanceMatrix.pairCount(x);
+
+		boolean[] complete = StoredDistanceMatrix.completeLocations(theSize, theCandidates, first, theSecond);
+		int keptCount = 0;
+		for(int i = 0; i < theSize; i++)
+			if(complete[i])
+				keptCount++;
+		kept = new int[keptCount];
+		for(int i = 0, k = 0; i < theSize; i++)
+			if(complete[i])
+				kept[k++] = i;
+
+		double firstSum = 0.0, secondSum = 0.0;
+		for(int i = 1; i < kept.length; i++)
+			for(int j = 0; j < i; j++) {
+				firstSum += first[rowStarts[kept[i]] + kept[j]];
+				secondSum += theSecond[rowStarts[kept[i]] + kept[j]];
+			}
+		long pairs = StoredDistanceMatrix.pairCount(kept.length);
+		double firstMean = firstSum / pairs;
+		double secondMean = secondSum / pairs;
+		double firstSquares = 0.0, secondSquares = 0.0;
+		centered = new double[kept.length][kept.length];
+		for(int i = 1; i < kept.length; i++)
+			for(int j = 0; j < i; j++) {
+				double a = first[rowStarts[kept[i]] + kept[j]] - firstMean;
+				double b = theSecond[rowStarts[kept[i]] + kept[j]] - secondMean;
+				firstSquares += a*a;
+				secondSquares += b*b;
+				centered[i][j] = b;
+				centered[j][i] = b;
+			}
+		denominator = Math.sqrt(firstSquares*secondSquares);
+	}
+
+	/**
+	 * @return					Number of locations taking part in the test
+	 */
+	public int locationCount() {
+		return kept.length;
+	}
+
+	/**
+	 * @return					The Mantel statistic, the correlation of the two matrices, NaN if either matrix has no variance
+	 */
+	public double statistic() {
+		return crossProduct(identity()) / denominator;
+	}
+
+	/**
+	 * Runs the permutation test
+	 * @param permutations		Number of random permutations
+	 * @param seed				Seed of the random number generator
+	 * @param parallelism		Number of threads
+	 * @return					The statistic and its significance
+	 */
+	public Result test(int permutations, long seed, int parallelism) {
+		double observed = crossProduct(identity());
+		double statistic = observed / denominator;
+		if(Double.isNaN(statistic) || permutations < 1)
+			return new Result(statistic, Double.NaN, 0, kept.length);
+
+		int streams = (permutations + PERMUTATIONS_PER_STREAM - 1) / PERMUTATIONS_PER_STREAM;
+		SplittableRandom random = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[streams];
+		for(int x = 0; x < streams; x++)
+			randoms[x] = random.split();
+		int[] exceeding = new int[streams];
+		double threshold = observed - TOLERANCE*denominator;
+		StreamTask task = new StreamTask(0, streams, permutations, threshold, randoms, exceeding);
+		if(parallelism > 1) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(task);
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+		else
+			task.compute();
+
+		long count = 0;
+		for(int x = 0; x < streams; x++)
+			count += exceeding[x];
+		return new Result(statistic, (count + 1.0) / (permutations + 1.0), permutations, kept.length);
+	}
+
+	/**
+	 * @return					The permutation leaving every kept location in place
+	 */
+	private int[] identity() {
+		int[] permutation = new int[kept.length];
+		for(int x = 0; x < permutation.length; x++)
+			permutation[x] = x;
+		return permutation;
+	}
+
+	/**
+	 * Sum of the products of the distances of the first matrix and the centered distances of the second, with the
+	 * kept locations of the second matrix reordered by a permutation
+	 * @param permutation		Index, among the kept locations, of the location of the second matrix standing for each kept location
+	 */
+	private double crossProduct(int[] permutation) {
+		double sum = 0.0;
+		for(int i = 1; i < kept.length; i++) {
+			int firstRow = rowStarts[kept[i]];
+			double[] secondRow = centered[permutation[i]];
+			double rowSum = 0.0;
+			for(int j = 0; j < i; j++)
+				rowSum += first[firstRow + kept[j]] * secondRow[permutation[j]];
+			sum += rowSum;
+		}
+		return sum;
+	}
+
+	/**
+	 * Reads a condensed matrix from a binary distance matrix file, see DistanceMatrixFile, or from a text matrix in
+	 * one of the formats written by GeographicDistanceMatrixGeneratorEngine.generateMatrix, optionally gzip
+	 * compressed.  The format of a text matrix is recognized from the number of labels in its header row and of
+	 * distances in its first row, only the distances below the diagonal are read and "ERROR" is read as NaN.  The
+	 * distances are read with the symbols of the default locale, as written by FixedPrecisionFormatter, or with a '.'
+	 * or ',' decimal separator, so a matrix written in another locale can be read as well.
+	 * @param theFilename		The name of the file
+	 * @param theSize			Number of locations the matrix must have
+	 * @return					The condensed distances
+	 * @throws IOException		If the file can not be read or is not a matrix of theSize locations
+	 */
+	public static double[] readCondensedMatrix(String theFilename, int theSize) throws IOException {
+		if(StoredDistanceMatrix.pairCount(theSize) > Integer.MAX_VALUE - 8)
+			throw new IOException("A condensed matrix of " + theSize + " locations does not fit in an array");
+		byte[] magic = new byte[DistanceMatrixFile.MAGIC.length];
+		DataInputStream input = new DataInputStream(new FileInputStream(theFilename));
+		try {
+			input.readFully(magic);
+		}
+		catch (IOException e) {
+			Arrays.fill(magic, (byte)0);
+		}
+		finally {
+			input.close();
+		}
+		if(Arrays.equals(magic, DistanceMatrixFile.MAGIC))
+			return readBinaryMatrix(theFilename, theSize);
+		InputStream stream = new FileInputStream(theFilename);
+		if(GeographicDistanceMatrixGeneratorEngine.isCompressed(theFilename))
+			stream = new GZIPInputStream(stream, 1 << 16);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), 1 << 16);
+		try {
+			return readTextMatrix(reader, theFilename, theSize);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static double[] readBinaryMatrix(String theFilename, int theSize) throws IOException {
+		MappedDistanceMatrix matrix = new MappedDistanceMatrix(theFilename);
+		try {
+			if(matrix.size() != theSize)
+				throw new IOException("The matrix in " + theFilename + " has " + matrix.size() + " locations, expected " + theSize);
+			double[] distances = new double[(int)StoredDistanceMatrix.pairCount(theSize)];
+			for(int i = 1, index = 0; i < theSize; i++)
+				for(int j = 0; j < i; j++)
+					distances[index++] = matrix.get(i, j);
+			return distances;
+		}
+		finally {
+			matrix.close();
+		}
+	}
+
+	private static double[] readTextMatrix(BufferedReader reader, String theFilename, int theSize) throws IOException {
+		String header = reader.readLine();
+		if(header == null)
+			throw new IOException("The matrix in " + theFilename + " is empty");
+		int labels = split(header).length - 1;
+		double[] distances = new double[(int)StoredDistanceMatrix.pairCount(theSize)];
+		DecimalFormat localized = localizedFormat();
+		MatrixFormat format = null;
+		int rows = 0;
+		String line;
+		while((line = reader.readLine()) != null) {
+			if(line.trim().isEmpty())
+				continue;
+			String[] cells = split(line);
+			if(format == null) {
+				if(labels == theSize - 1)
+					format = MatrixFormat.LOWER_TRIANGULAR;
+				else if(labels == theSize && theSize > 1 && cells.length - 1 == theSize)
+					format = MatrixFormat.FULL_MATRIX;
+				else if(labels == theSize)
+					format = MatrixFormat.LOWER_TRIANGULAR_DIAGONAL;
+				else
+					break;
+			}
+			int i = rows + format.firstRow();
+			if(i >= theSize || cells.length - 1 != format.rowLength(theSize, i))
+				throw new IOException("Row " + (rows + 1) + " of the matrix in " + theFilename + " does not match a " + format.name() + " of " + theSize + " locations");
+			for(int j = 0; j < i; j++)
+				distances[StoredDistanceMatrix.index(i, j)] = parse(cells[j + 1], localized, theFilename);
+			rows++;
+		}
+		if(format == null && theSize > 1)
+			throw new IOException("The matrix in " + theFilename + " is not a matrix of " + theSize + " locations");
+		if(format != null && rows + format.firstRow() != theSize)
+			throw new IOException("The matrix in " + theFilename + " has " + (rows + format.firstRow()) + " rows, expected " + theSize);
+		return distances;
+	}
+
+	private static String[] split(String line) {
+		return line.split("\t", -1);
+	}
+
+	/**
+	 * @return					A format reading numbers with the symbols of the default locale, null if they are the ones of Double.parseDouble
+	 */
+	private static DecimalFormat localizedFormat() {
+		DecimalFormat format = new DecimalFormat("0.0");
+		format.setGroupingUsed(false);
+		if(format.getDecimalFormatSymbols().getDecimalSeparator() == '.' && format.getDecimalFormatSymbols().getZeroDigit() == '0' && format.getNegativePrefix().equals("-"))
+			return null;
+		return format;
+	}
+
+	private static double parse(String cell, DecimalFormat localized, String theFilename) throws IOException {
+		String value = cell.trim();
+		if(value.equals("ERROR"))
+			return Double.NaN;
+		if(localized != null) {
+			ParsePosition position = new ParsePosition(0);
+			Number number = localized.parse(value, position);
+			if(number != null && position.getIndex() == value.length())
+				return number.doubleValue();
+		}
+		try {
+			/*
+			 * The cells are separated by tabs and never grouped, so a comma can only be a decimal separator
+			 */
+			return Double.parseDouble(value.replace(',', '.'));
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("The matrix in " + theFilename + " contains a value that is not a number [" + value + "]");
+		}
+	}
+
+	/**
+	 * Outcome of a Mantel test
+	 */
+	public static class Result {
+		private final double statistic;
+		private final double pValue;
+		private final int permutations;
+		private final int locations;
+
+		Result(double theStatistic, double thePValue, int thePermutations, int theLocations) {
+			statistic = theStatistic;
+			pValue = thePValue;
+			permutations = thePermutations;
+			locations = theLocations;
+		}
+
+		/**
+		 * @return					The Mantel statistic, the correlation of the two matrices
+		 */
+		public double statistic() {
+			return statistic;
+		}
+
+		/**
+		 * @return					One tailed p-value, (1 + number of permutations with a correlation at least the statistic) / (1 + permutations)
+		 */
+		public double pValue() {
+			return pValue;
+		}
+
+		/**
+		 * @return					Number of permutations
+		 */
+		public int permutations() {
+			return permutations;
+		}
+
+		/**
+		 * @return					Number of locations that took part in the test
+		 */
+		public int locations() {
+			return locations;
+		}
+	}
+
+	/*
+	 * Splits a range of permutation streams in half until a single stream remains
+	 */
+	private class StreamTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int firstStream;
+		private final int lastStream;
+		private final int permutations;
+		private final double threshold;
+		private final SplittableRandom[] randoms;
+		private final int[] exceeding;
+
+		StreamTask(int theFirstStream, int theLastStream, int thePermutations, double theThreshold, SplittableRandom[] theRandoms, int[] theExceeding) {
+			firstStream = theFirstStream;
+			lastStream = theLastStream;
+			permutations = thePermutations;
+			threshold = theThreshold;
+			randoms = theRandoms;
+			exceeding = theExceeding;
+		}
+
+		protected void compute() {
+			if(lastStream - firstStream <= 1) {
+				for(int stream = firstStream; stream < lastStream; stream++)
+					run(stream);
+			}
+			else {
+				int middle = (firstStream + lastStream) >>> 1;
+				invokeAll(new StreamTask(firstStream, middle, permutations, threshold, randoms, exceeding), new StreamTask(middle, lastStream, permutations, threshold, randoms, exceeding));
+			}
+		}
+
+		/**
+		 * Draws the permutations of a stream, each one shuffling the previous one
+		 */
+		private void run(int stream) {
+			SplittableRandom random = randoms[stream];
+			int[] permutation = identity();
+			int count = Math.min(PERMUTATIONS_PER_STREAM, permutations - stream*PERMUTATIONS_PER_STREAM);
+			int exceeded = 0;
+			for(int x = 0; x < count; x++) {
+				for(int i = permutation.length - 1; i > 0; i--) {
+					int j = random.nextInt(i + 1);
+					int swap = permutation[i];
+					permutation[i] = permutation[j];
+					permutation[j] = swap;
+				}
+				if(crossProduct(permutation) >= threshold)
+					exceeded++;
+			}
+			exceeding[stream] = exceeded;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+** File: MappedDistanceMatrix.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only, random access view of a binary distance matrix file, see DistanceMatrixFile.  The distances are memory
+ * mapped, so any cell can be read in constant time without loading the file into the heap.  Only the site table
+ * is read into memory.  Instances can be shared among threads, see DistanceMatrix.
+ * @author Peter J. Ersts
+ *
+ */
+public class MappedDistanceMatrix extends AbstractDistanceMatrix {
+	/** \brief Each mapped region covers 2^30 bytes, MappedByteBuffer is limited to 2 GB */
+	private static final int REGION_BITS = 30;
+	private static final long REGION_MASK = (1L << REGION_BITS) - 1;
+
+	private final RandomAccessFile file;
+	private final int size;
+	private final boolean condensed;
+	private final boolean singlePrecision;
+	private final int valueShift;
+	private final double spheroidRadius;
+	private final String units;
+	private final MappedByteBuffer[] regions;
+	/** \brief Labels, coordinates and validity of the locations, from the site table */
+	private final LocationTable locations;
+
+	/**
+	 * Constructor, opens and maps a binary distance matrix file
+	 * @param theFilename		The name of the file
+	 * @throws IOException		If the file can not be read or is not a binary distance matrix
+	 */
+	public MappedDistanceMatrix(String theFilename) throws IOException {
+		file = new RandomAccessFile(new File(theFilename), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			DistanceMatrixFile.Header header = DistanceMatrixFile.readHeader(channel, theFilename);
+			size = header.size;
+			spheroidRadius = header.spheroidRadius;
+			units = header.units;
+			long dataOffset = header.dataOffset;
+			condensed = header.isCondensed();
+			singlePrecision = header.isSinglePrecision();
+			valueShift = singlePrecision ? 2 : 3;
+
+			/*
+			 * Map the distances in regions, a value never straddles two regions because the region size is a
+			 * multiple of the value size
+			 */
+			long dataLength = DistanceMatrixFile.dataLength(size, header.flags);
+			regions = new MappedByteBuffer[(int)((dataLength + REGION_MASK) >>> REGION_BITS)];
+			for(int x = 0; x < regions.length; x++) {
+				long start = (long)x << REGION_BITS;
+				regions[x] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start, Math.min(1L << REGION_BITS, dataLength - start));
+				regions[x].order(ByteOrder.LITTLE_ENDIAN);
+			}
+
+			locations = DistanceMatrixFile.readSiteTable(channel, header);
+		}
+		catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the distance between two locations
+	 * @param row				Index of the first location
+	 * @param column			Index of the second location
+	 * @return					The distance, NaN if either location is not valid, 0 on the diagonal
+	 */
+	public double get(int row, int column) {
+		long index;
+		if(condensed) {
+			if(row == column)
+				return 0.0;
+			if(row < column) {
+				int swap = row;
+				row = column;
+				column = swap;
+			}
+			index = row*(row-1L)/2 + column;
+		}
+		else
+			index = (long)row*size + column;
+
+		long position = index << valueShift;
+		MappedByteBuffer region = regions[(int)(position >>> REGION_BITS)];
+		int offset = (int)(position & REGION_MASK);
+		return singlePrecision ? region.getFloat(offset) : region.getDouble(offset);
+	}
+
+	/**
+	 * @return					The number of locations
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					The label of the location
+	 */
+	public String label(int index) {
+		return locations.label(index);
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					The latitude of the location, expressed in decimal degrees
+	 */
+	public double latitude(int index) {
+		return locations.latitude(index);
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					The longitude of the location, expressed in decimal degrees
+	 */
+	public double longitude(int index) {
+		return locations.longitude(index);
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					True if the coordinates of the location are valid
+	 */
+	public boolean isValid(int index) {
+		return locations.isValid(index);
+	}
+
+	/**
+	 * @return					Abbreviation of the units of the distances, e.g., "km"
+	 */
+	public String units() {
+		return units;
+	}
+
+	/**
+	 * @return					Radius of spherical representation of the earth used to compute the distances, in meters
+	 */
+	public double spheroidRadius() {
+		return spheroidRadius;
+	}
+
+	/**
+	 * @return					True if only the distances below the diagonal are stored
+	 */
+	public boolean isCondensed() {
+		return condensed;
+	}
+
+	/**
+	 * @return					True if the distances are stored as float32
+	 */
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	/**
+	 * Closes the file, the matrix can not be used afterwards
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+}
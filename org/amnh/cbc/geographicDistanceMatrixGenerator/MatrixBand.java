@@ -0,0 +1,731 @@
+/*
+** File: MatrixBand.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.amnh.cbc.core.FixedPrecisionFormatter;
+import org.amnh.cbc.geospatial.SphericalFunctionEngine;
+
+/*
+ * A band of consecutive rows of the matrix, TILE_SIZE by default or the height given to the constructor.  The
+ * distances of a band are computed in square tiles of TILE_SIZE x TILE_SIZE cells and the rows are then formatted as
+ * text. When a ForkJoinPool is supplied the tiles and rows are shared among its threads, otherwise they are processed
+ * in order on the calling thread.  Every cell is computed by the same code in both cases so the resulting text does
+ * not depend on the number of threads.
+ *
+ * A FULL_MATRIX is symmetric, so when mirroring is enabled only the cells below the diagonal are computed and
+ * formatted, band by band through cacheLowerTriangle, and kept as text.  The rows are then assembled by copying the
+ * cached text of row y for the cells left of the diagonal and the cached cell y of the rows below for the cells right
+ * of it.  The central angle of a pair does not depend on the order of the points, so the text is the same.
+ *
+ * A band can also hold rows of a cross matrix, where the rows and the columns are two different sets of locations.
+ * Its format is then FULL_MATRIX, there is no diagonal and mirroring is not possible.
+ *
+ * When many locations share their coordinates the band can instead compute by site, see SiteIndex and
+ * deduplicateSites.  The distinct sites of the rows of a band get a slot, the distances of each slot are computed to
+ * the sites of the columns only and formatted once, and every row is then assembled by copying the cell of the site of
+ * each column.  The distance of a pair of sites is the one of each pair of their locations, so the text is the same.
+ *
+ * The same distances can be written in several units or for several radii.  A band created from another band, its
+ * source, shares the central angles, and the slots when computing by site, of the source and only formats them with
+ * its own scale and decimals, see format.  Every angle is then computed once for all the outputs.
+ */
+class MatrixBand {
+	/** \brief Number of rows and columns in a tile, a tile of distances (128 KB) fits in the L2 cache */
+	static final int TILE_SIZE = 128;
+	/** \brief Text of a distance involving a location that is not valid */
+	private static final char[] ERROR = "ERROR".toCharArray();
+
+	/** \brief Locations of the rows */
+	private final LocationTable locations;
+	/** \brief Number of rows */
+	private final int size;
+	/** \brief Locations of the columns, the same table as locations unless this is a cross matrix */
+	private final LocationTable columns;
+	private final int columnCount;
+	/** \brief Flag to indicate that the rows and the columns are the same locations, so the matrix has a diagonal */
+	private final boolean square;
+	private final MatrixFormat format;
+	private final double scale;
+	private final int decimals;
+	/** \brief Formatter of each thread formatting the band, created once per thread, a formatter is not thread safe */
+	private final ThreadLocal<FixedPrecisionFormatter> formatters;
+	/** \brief Text of a distance of 0, null when the band only computes values */
+	private final char[] zero;
+	/** \brief Most characters a cell of a row can take, with its tab */
+	private final int cellLength;
+	/** \brief Central angles of the current band, expressed in radians, [row - bandStart][column] */
+	private final double[][] angles;
+	/** \brief Band computing the central angles this band formats, null if this band computes them */
+	private final MatrixBand source;
+	/** \brief Formatted rows of the current band, each followed by a new line, reused from band to band */
+	private final char[][] rows;
+	private final int[] rowLengths;
+	private int bandStart;
+	private int bandEnd;
+	/** \brief Flag to indicate that the current band is being computed for the lower triangle cache */
+	private boolean caching;
+	/** \brief Formatted cells left of the diagonal, each preceded by a tab, [row], null unless mirroring */
+	private char[][] lowerCells;
+	/** \brief Start of each cell in lowerCells[row], the last entry is the length of the cached text */
+	private int[][] lowerCellStarts;
+	/** \brief Sites of the rows and of the columns, null unless computing by site */
+	private SiteIndex rowSites;
+	private SiteIndex columnSites;
+	/** \brief Slot of each row of the current band, -1 if the row is not valid */
+	private int[] rowSlots;
+	/** \brief Site of each slot of the current band, the central angles of slot n are in angles[n][column site] */
+	private int[] slotSites;
+	private int slotCount;
+	/** \brief Slot of each row site in the current band, -1 for the sites without one */
+	private int[] siteSlots;
+	/** \brief Formatted cells of each slot, one per column site, each preceded by a tab, [slot] */
+	private char[][] siteCells;
+	/** \brief Start of each cell in siteCells[slot], the last entry is the length of the text */
+	private int[][] siteCellStarts;
+
+	/**
+	 * Constructor for bands of TILE_SIZE rows
+	 * @param theLocations		The locations, rows and columns of the matrix
+	 * @param theFormat			The type of matrix to generate
+	 * @param theScale			Radians to unit multiplier of the output distances
+	 * @param theDecimals		Number of decimals of the output distances
+	 */
+	MatrixBand(LocationTable theLocations, MatrixFormat theFormat, double theScale, int theDecimals) {
+		this(theLocations, theFormat, theScale, theDecimals, TILE_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 * @param theLocations		The locations, rows and columns of the matrix
+	 * @param theFormat			The type of matrix to generate
+	 * @param theScale			Radians to unit multiplier of the output distances
+	 * @param theDecimals		Number of decimals of the output distances
+	 * @param theHeight			Largest number of rows in a band, see rowMemory
+	 */
+	MatrixBand(LocationTable theLocations, MatrixFormat theFormat, double theScale, int theDecimals, int theHeight) {
+		this(theLocations, theLocations, theFormat, theScale, theDecimals, theHeight);
+	}
+
+	/**
+	 * Constructor
+	 * @param theRows			The locations of the rows
+	 * @param theColumns		The locations of the columns, theRows unless this is a cross matrix, which must be a FULL_MATRIX
+	 * @param theFormat			The type of matrix to generate
+	 * @param theScale			Radians to unit multiplier of the output distances
+	 * @param theDecimals		Number of decimals of the output distances
+	 * @param theHeight			Largest number of rows in a band, see rowMemory
+	 */
+	MatrixBand(LocationTable theRows, LocationTable theColumns, MatrixFormat theFormat, double theScale, int theDecimals, int theHeight) {
+		locations = theRows;
+		size = theRows.size();
+		columns = theColumns;
+		columnCount = theColumns.size();
+		square = theRows == theColumns;
+		format = theFormat;
+		scale = theScale;
+		decimals = theDecimals;
+		formatters = formatters(theDecimals);
+		zero = zero(formatters);
+		cellLength = rowCellLength(formatters, zero);
+		angles = new double[theHeight][columnCount];
+		source = null;
+		rows = new char[theHeight][0];
+		rowLengths = new int[theHeight];
+		caching = false;
+		lowerCells = null;
+		lowerCellStarts = null;
+		rowSites = null;
+		columnSites = null;
+	}
+
+	/**
+	 * Constructor of a band formatting the central angles of another band with a different scale, see format.  The
+	 * source must not mirror and must already compute by site if it does, see deduplicateSites.
+	 * @param theSource			The band computing the central angles
+	 * @param theScale			Radians to unit multiplier of the output distances
+	 * @param theDecimals		Number of decimals of the output distances
+	 */
+	MatrixBand(MatrixBand theSource, double theScale, int theDecimals) {
+		locations = theSource.locations;
+		size = theSource.size;
+		columns = theSource.columns;
+		columnCount = theSource.columnCount;
+		square = theSource.square;
+		format = theSource.format;
+		scale = theScale;
+		decimals = theDecimals;
+		formatters = formatters(theDecimals);
+		zero = zero(formatters);
+		cellLength = rowCellLength(formatters, zero);
+		angles = theSource.angles;
+		source = theSource;
+		int height = angles.length;
+		rows = new char[height][0];
+		rowLengths = new int[height];
+		caching = false;
+		lowerCells = null;
+		lowerCellStarts = null;
+		rowSites = theSource.rowSites;
+		columnSites = theSource.columnSites;
+		if(rowSites != null) {
+			rowSlots = theSource.rowSlots;
+			slotSites = theSource.slotSites;
+			siteCells = new char[height][0];
+			siteCellStarts = new int[height][];
+		}
+	}
+
+	/**
+	 * @param theDecimals		Number of decimals of the output distances, 0 when the band only computes values
+	 * @return					Formatters created on the first use by each thread, null if there is nothing to format
+	 */
+	private static ThreadLocal<FixedPrecisionFormatter> formatters(final int theDecimals) {
+		if(theDecimals < 1)
+			return null;
+		return new ThreadLocal<FixedPrecisionFormatter>() {
+			protected FixedPrecisionFormatter initialValue() {
+				return new FixedPrecisionFormatter(theDecimals);
+			}
+		};
+	}
+
+	/**
+	 * @return					The text of a distance of 0, null if there is nothing to format
+	 */
+	private static char[] zero(ThreadLocal<FixedPrecisionFormatter> theFormatters) {
+		if(theFormatters == null)
+			return null;
+		char[] text = new char[theFormatters.get().maximumLength()];
+		return Arrays.copyOf(text, theFormatters.get().format(0.0, text, 0));
+	}
+
+	/**
+	 * @return					Most characters a cell of a row can take with its tab, 0 if there is nothing to format
+	 */
+	private static int rowCellLength(ThreadLocal<FixedPrecisionFormatter> theFormatters, char[] theZero) {
+		if(theFormatters == null)
+			return 0;
+		return Math.max(theZero.length, ERROR.length) + theFormatters.get().maximumLength() + 1;
+	}
+
+	/**
+	 * Estimates the memory needed to mirror a FULL_MATRIX, see enableMirroring()
+	 * @param size				Number of locations
+	 * @param scale				Radians to unit multiplier of the output distances
+	 * @param decimals			Number of decimals of the output distances
+	 * @return					Estimated size of the lower triangle cache, in bytes
+	 */
+	static long mirroringMemory(int size, double scale, int decimals) {
+		/*
+		 * Two byte chars plus an int offset per cell
+		 */
+		long cellSize = 2*cellLength(scale, decimals) + 4;
+		return cellSize*size*(size-1L)/2;
+	}
+
+	/**
+	 * Estimates the memory taken by each row of a band, i.e., its central angles and its text
+	 * @param size				Number of columns
+	 * @param scale				Radians to unit multiplier of the output distances
+	 * @param decimals			Number of decimals of the output distances
+	 * @return					Estimated size of a row, in bytes
+	 */
+	static long rowMemory(int size, double scale, int decimals) {
+		return (8 + 2L*cellLength(scale, decimals))*size;
+	}
+
+	/**
+	 * Estimates the memory taken by each row of a band, in addition to rowMemory, when computing by site
+	 * @param sites				Number of column sites
+	 * @param scale				Radians to unit multiplier of the output distances
+	 * @param decimals			Number of decimals of the output distances
+	 * @return					Estimated size of the formatted cells of a slot, in bytes
+	 */
+	static long siteMemory(int sites, double scale, int decimals) {
+		return (4 + 2L*cellLength(scale, decimals))*sites;
+	}
+
+	/**
+	 * @return					Number of characters of the longest formatted cell: tab, integer digits of the longest possible distance, separator and decimals
+	 */
+	private static int cellLength(double scale, int decimals) {
+		int integerDigits = Math.max(1, (int)Math.floor(Math.log10(Math.max(1.0, Math.PI*scale))) + 1);
+		return 1 + integerDigits + 1 + decimals;
+	}
+
+	/**
+	 * Only compute and format the lower triangle of a FULL_MATRIX.  Every band must be passed to cacheLowerTriangle
+	 * before the first call to compute.
+	 */
+	void enableMirroring() {
+		lowerCells = new char[size][];
+		lowerCellStarts = new int[size][];
+	}
+
+	/**
+	 * Compute by site rather than by location, see SiteIndex.  Can not be combined with enableMirroring.
+	 */
+	void deduplicateSites() {
+		rowSites = locations.sites();
+		columnSites = columns.sites();
+		int height = angles.length;
+		rowSlots = new int[height];
+		slotSites = new int[height];
+		siteSlots = new int[rowSites.count()];
+		Arrays.fill(siteSlots, -1);
+		siteCells = new char[height][0];
+		siteCellStarts = new int[height][];
+	}
+
+	/**
+	 * Computes, formats and caches the cells left of the diagonal in the rows bandStart to bandEnd-1
+	 * @param theBandStart		Index of the first row of the band
+	 * @param theBandEnd		Index following the last row of the band, at most theBandStart + TILE_SIZE
+	 * @param pool				Pool to run the tiles on, null to run them on the calling thread
+	 */
+	void cacheLowerTriangle(int theBandStart, int theBandEnd, ForkJoinPool pool) {
+		caching = true;
+		try {
+			process(theBandStart, theBandEnd, (theBandEnd - 2 + TILE_SIZE) / TILE_SIZE, pool, true);
+		}
+		finally {
+			caching = false;
+		}
+	}
+
+	/**
+	 * Computes and formats the rows bandStart to bandEnd-1
+	 * @param theBandStart		Index of the first row of the band
+	 * @param theBandEnd		Index following the last row of the band, at most theBandStart + the height of the band
+	 * @param pool				Pool to run the tiles on, null to run them on the calling thread
+	 */
+	void compute(int theBandStart, int theBandEnd, ForkJoinPool pool) {
+		/*
+		 * When mirroring every distance is already in the cache
+		 */
+		process(theBandStart, theBandEnd, lowerCells != null ? 0 : tileCount(theBandEnd), pool, true);
+	}
+
+	/**
+	 * Computes the distances of the rows bandStart to bandEnd-1 without formatting them, see value(int, int)
+	 * @param theBandStart		Index of the first row of the band
+	 * @param theBandEnd		Index following the last row of the band, at most theBandStart + the height of the band
+	 * @param pool				Pool to run the tiles on, null to run them on the calling thread
+	 */
+	void computeValues(int theBandStart, int theBandEnd, ForkJoinPool pool) {
+		process(theBandStart, theBandEnd, tileCount(theBandEnd), pool, false);
+	}
+
+	/**
+	 * Formats the current band of the source band, after its compute or computeValues, with the scale of this band
+	 * @param pool				Pool to run the rows on, null to run them on the calling thread
+	 */
+	void format(ForkJoinPool pool) {
+		bandStart = source.bandStart;
+		bandEnd = source.bandEnd;
+		slotCount = source.slotCount;
+		if(pool == null) {
+			if(rowSites != null)
+				formatSlots(0, slotCount);
+			formatRows(bandStart, bandEnd);
+		}
+		else {
+			if(rowSites != null)
+				pool.invoke(new SlotTask(0, slotCount));
+			pool.invoke(new RowTask(bandStart, bandEnd));
+		}
+	}
+
+	/**
+	 * @return					Number of tiles covering the columns of the rows up to bandEnd-1, or the column sites when computing by site
+	 */
+	private int tileCount(int theBandEnd) {
+		int length = rowSites != null ? columnSites.count() : format.rowLength(columnCount, theBandEnd-1);
+		return (length + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	private void process(int theBandStart, int theBandEnd, int tiles, ForkJoinPool pool, boolean formatting) {
+		bandStart = theBandStart;
+		bandEnd = theBandEnd;
+		if(rowSites != null)
+			assignSlots();
+		if(pool == null) {
+			computeTiles(0, tiles);
+			if(formatting && rowSites != null)
+				formatSlots(0, slotCount);
+			if(formatting)
+				formatRows(bandStart, bandEnd);
+		}
+		else {
+			pool.invoke(new TileTask(0, tiles));
+			if(formatting && rowSites != null)
+				pool.invoke(new SlotTask(0, slotCount));
+			if(formatting)
+				pool.invoke(new RowTask(bandStart, bandEnd));
+		}
+	}
+
+	/**
+	 * Gives a slot to each distinct site of the rows of the current band
+	 */
+	private void assignSlots() {
+		slotCount = 0;
+		for(int y = bandStart; y < bandEnd; y++) {
+			int site = rowSites.site(y);
+			if(site < 0) {
+				rowSlots[y-bandStart] = -1;
+				continue;
+			}
+			if(siteSlots[site] < 0) {
+				slotSites[slotCount] = site;
+				siteSlots[site] = slotCount++;
+			}
+			rowSlots[y-bandStart] = siteSlots[site];
+		}
+		for(int slot = 0; slot < slotCount; slot++)
+			siteSlots[slotSites[slot]] = -1;
+	}
+
+	/**
+	 * Returns a distance of the current band, see computeValues
+	 * @param row				Index of a row of the current band
+	 * @param column			Index of a column of the row
+	 * @return					The distance, 0 on the diagonal and NaN if either location is not valid
+	 */
+	double value(int row, int column) {
+		if(square && row == column)
+			return 0.0;
+		if(!locations.isValid(row) || !columns.isValid(column))
+			return Double.NaN;
+		if(rowSites != null)
+			return angles[rowSlots[row-bandStart]][columnSites.site(column)]*scale;
+		return angles[row-bandStart][column]*scale;
+	}
+
+	/**
+	 * @param row				Index of a row of the current band
+	 * @return					The formatted row
+	 */
+	String row(int row) {
+		return new String(rows[row-bandStart], 0, rowLengths[row-bandStart]-1);
+	}
+
+	/**
+	 * Writes a row of the current band followed by a new line
+	 * @param row				Index of a row of the current band
+	 * @param output			Destination of the row
+	 * @throws IOException
+	 */
+	void writeRow(int row, Writer output) throws IOException {
+		output.write(rows[row-bandStart], 0, rowLengths[row-bandStart]);
+	}
+
+	/**
+	 * Computes the central angles of the tiles firstTile to lastTile-1 of the current band
+	 */
+	private void computeTiles(int firstTile, int lastTile) {
+		if(rowSites != null) {
+			computeSiteTiles(firstTile, lastTile);
+			return;
+		}
+		double[] vx = columns.x;
+		double[] vy = columns.y;
+		double[] vz = columns.z;
+		for(int tile = firstTile; tile < lastTile; tile++) {
+			int tileStart = tile*TILE_SIZE;
+			for(int y = bandStart; y < bandEnd; y++) {
+				if(!locations.isValid(y))
+					continue;
+				double x1 = locations.x[y], y1 = locations.y[y], z1 = locations.z[y];
+				double[] angleRow = angles[y-bandStart];
+				int tileEnd = Math.min(tileStart + TILE_SIZE, caching ? y : format.rowLength(columnCount, y));
+				/*
+				 * Cells of invalid locations get NaN, they are never read
+				 */
+				for(int x = tileStart; x < tileEnd; x++)
+					angleRow[x] = SphericalFunctionEngine.centralAngle(x1, y1, z1, vx[x], vy[x], vz[x]);
+			}
+		}
+	}
+
+	/**
+	 * Computes the central angles between the slots of the current band and the column sites of the tiles firstTile to lastTile-1
+	 */
+	private void computeSiteTiles(int firstTile, int lastTile) {
+		double[] vx = columnSites.x;
+		double[] vy = columnSites.y;
+		double[] vz = columnSites.z;
+		int sites = columnSites.count();
+		for(int tile = firstTile; tile < lastTile; tile++) {
+			int tileStart = tile*TILE_SIZE;
+			int tileEnd = Math.min(tileStart + TILE_SIZE, sites);
+			for(int slot = 0; slot < slotCount; slot++) {
+				int site = slotSites[slot];
+				double x1 = rowSites.x[site], y1 = rowSites.y[site], z1 = rowSites.z[site];
+				double[] angleRow = angles[slot];
+				for(int x = tileStart; x < tileEnd; x++)
+					angleRow[x] = SphericalFunctionEngine.centralAngle(x1, y1, z1, vx[x], vy[x], vz[x]);
+			}
+		}
+	}
+
+	/**
+	 * Formats the cells of the slots firstSlot to lastSlot-1 of the current band, one per column site
+	 */
+	private void formatSlots(int firstSlot, int lastSlot) {
+		FixedPrecisionFormatter formatter = formatters.get();
+		int cellLength = formatter.maximumLength() + 1;
+		int sites = columnSites.count();
+		for(int slot = firstSlot; slot < lastSlot; slot++) {
+			double[] angleRow = angles[slot];
+			char[] cells = siteCells[slot];
+			int[] starts = siteCellStarts[slot];
+			if(starts == null || starts.length < sites + 1)
+				siteCellStarts[slot] = starts = new int[sites + 1];
+			int length = 0;
+			for(int x = 0; x < sites; x++) {
+				if(cells.length - length < cellLength)
+					cells = Arrays.copyOf(cells, Math.max(2*cells.length, length + (sites-x)*8 + cellLength));
+				starts[x] = length;
+				cells[length++] = '\t';
+				length = formatter.format(angleRow[x]*scale, cells, length);
+			}
+			starts[sites] = length;
+			siteCells[slot] = cells;
+		}
+	}
+
+	/**
+	 * Formats the rows firstRow to lastRow-1 of the current band. If a coordinate is not a valid number, display ERROR
+	 */
+	private void formatRows(int firstRow, int lastRow) {
+		FixedPrecisionFormatter formatter = formatters.get();
+		char[] error = ERROR;
+		for(int y = firstRow; y < lastRow; y++) {
+			if(caching) {
+				cacheRow(y, formatter, error, cellLength);
+				continue;
+			}
+			double[] angleRow = angles[y-bandStart];
+			boolean valid = locations.isValid(y);
+			int rowLength = format.rowLength(columnCount, y);
+			char[] rowData = rows[y-bandStart];
+			int labelCapacity = locations.labelCapacity(y);
+			if(rowData.length < labelCapacity + 1)
+				rowData = new char[labelCapacity + 1];
+			int length = locations.copyLabel(y, rowData, 0);
+			if(lowerCells != null) {
+				rowData = mirrorRow(y, rowData, length, zero);
+				length = rowLengths[y-bandStart];
+			}
+			else if(rowSites != null) {
+				rowData = assembleRow(y, rowData, length, zero, error, cellLength);
+				length = rowLengths[y-bandStart];
+			}
+			else {
+				for(int x = 0; x < rowLength; x++) {
+					if(rowData.length - length < cellLength)
+						rowData = Arrays.copyOf(rowData, Math.max(2*rowData.length, length + (rowLength-x)*(zero.length+1) + cellLength));
+					rowData[length++] = '\t';
+					if(square && x == y) {
+						System.arraycopy(zero, 0, rowData, length, zero.length);
+						length += zero.length;
+					}
+					else if(valid && columns.isValid(x))
+						length = formatter.format(angleRow[x]*scale, rowData, length);
+					else {
+						System.arraycopy(error, 0, rowData, length, error.length);
+						length += error.length;
+					}
+				}
+				rowData[length++] = '\n';
+			}
+			rows[y-bandStart] = rowData;
+			rowLengths[y-bandStart] = length;
+		}
+	}
+
+	/**
+	 * Formats the cells left of the diagonal of row y into the lower triangle cache
+	 */
+	private void cacheRow(int y, FixedPrecisionFormatter formatter, char[] error, int cellLength) {
+		double[] angleRow = angles[y-bandStart];
+		boolean valid = locations.isValid(y);
+		char[] cells = new char[y*16 + cellLength];
+		int[] starts = new int[y+1];
+		int length = 0;
+		for(int x = 0; x < y; x++) {
+			if(cells.length - length < cellLength)
+				cells = Arrays.copyOf(cells, Math.max(2*cells.length, length + cellLength));
+			starts[x] = length;
+			cells[length++] = '\t';
+			if(valid && locations.isValid(x))
+				length = formatter.format(angleRow[x]*scale, cells, length);
+			else {
+				System.arraycopy(error, 0, cells, length, error.length);
+				length += error.length;
+			}
+		}
+		starts[y] = length;
+		lowerCells[y] = length == cells.length ? cells : Arrays.copyOf(cells, length);
+		lowerCellStarts[y] = starts;
+	}
+
+	/**
+	 * Assembles row y of a FULL_MATRIX from the lower triangle cache, the label is already in rowData
+	 * @return					The row, possibly in a new larger array
+	 */
+	private char[] mirrorRow(int y, char[] rowData, int length, char[] zero) {
+		int needed = length + lowerCells[y].length + 1 + zero.length + 1;
+		for(int x = y+1; x < size; x++)
+			needed += lowerCellStarts[x][y+1] - lowerCellStarts[x][y];
+		if(rowData.length < needed)
+			rowData = Arrays.copyOf(rowData, needed);
+
+		System.arraycopy(lowerCells[y], 0, rowData, length, lowerCells[y].length);
+		length += lowerCells[y].length;
+		rowData[length++] = '\t';
+		System.arraycopy(zero, 0, rowData, length, zero.length);
+		length += zero.length;
+		for(int x = y+1; x < size; x++) {
+			int start = lowerCellStarts[x][y];
+			int cellLength = lowerCellStarts[x][y+1] - start;
+			System.arraycopy(lowerCells[x], start, rowData, length, cellLength);
+			length += cellLength;
+		}
+		rowData[length++] = '\n';
+		rowLengths[y-bandStart] = length;
+		return rowData;
+	}
+
+	/**
+	 * Assembles row y from the formatted cells of its slot, the label is already in rowData
+	 * @return					The row, possibly in a new larger array
+	 */
+	private char[] assembleRow(int y, char[] rowData, int length, char[] zero, char[] error, int cellLength) {
+		int slot = rowSlots[y-bandStart];
+		int rowLength = format.rowLength(columnCount, y);
+		char[] cells = slot < 0 ? null : siteCells[slot];
+		int[] starts = slot < 0 ? null : siteCellStarts[slot];
+		for(int x = 0; x < rowLength; x++) {
+			if(rowData.length - length < cellLength)
+				rowData = Arrays.copyOf(rowData, Math.max(2*rowData.length, length + (rowLength-x)*(zero.length+1) + cellLength));
+			int site = columnSites.site(x);
+			if(square && x == y) {
+				rowData[length++] = '\t';
+				System.arraycopy(zero, 0, rowData, length, zero.length);
+				length += zero.length;
+			}
+			else if(slot >= 0 && site >= 0) {
+				int start = starts[site];
+				System.arraycopy(cells, start, rowData, length, starts[site+1] - start);
+				length += starts[site+1] - start;
+			}
+			else {
+				rowData[length++] = '\t';
+				System.arraycopy(error, 0, rowData, length, error.length);
+				length += error.length;
+			}
+		}
+		rowData[length++] = '\n';
+		rowLengths[y-bandStart] = length;
+		return rowData;
+	}
+
+	/*
+	 * Splits a range of tiles in half until a single tile remains, idle threads steal the other halves
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int firstTile;
+		private final int lastTile;
+
+		TileTask(int theFirstTile, int theLastTile) {
+			firstTile = theFirstTile;
+			lastTile = theLastTile;
+		}
+
+		protected void compute() {
+			if(lastTile - firstTile <= 1)
+				computeTiles(firstTile, lastTile);
+			else {
+				int middle = (firstTile + lastTile) >>> 1;
+				invokeAll(new TileTask(firstTile, middle), new TileTask(middle, lastTile));
+			}
+		}
+	}
+
+	/*
+	 * Splits a range of slots in half until a single slot remains
+	 */
+	private class SlotTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int firstSlot;
+		private final int lastSlot;
+
+		SlotTask(int theFirstSlot, int theLastSlot) {
+			firstSlot = theFirstSlot;
+			lastSlot = theLastSlot;
+		}
+
+		protected void compute() {
+			if(lastSlot - firstSlot <= 1)
+				formatSlots(firstSlot, lastSlot);
+			else {
+				int middle = (firstSlot + lastSlot) >>> 1;
+				invokeAll(new SlotTask(firstSlot, middle), new SlotTask(middle, lastSlot));
+			}
+		}
+	}
+
+	/*
+	 * Splits a range of rows in half until a single row remains
+	 */
+	private class RowTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int firstRow;
+		private final int lastRow;
+
+		RowTask(int theFirstRow, int theLastRow) {
+			firstRow = theFirstRow;
+			lastRow = theLastRow;
+		}
+
+		protected void compute() {
+			if(lastRow - firstRow <= 1)
+				formatRows(firstRow, lastRow);
+			else {
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new RowTask(firstRow, middle), new RowTask(middle, lastRow));
+			}
+		}
+	}
+}
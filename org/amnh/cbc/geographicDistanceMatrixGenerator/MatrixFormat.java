@@ -0,0 +1,80 @@
+/*
+** File: MatrixFormat.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+/**
+ * The types of matrix the GeographicDistanceMatrixGeneratorEngine can generate.  The names match the action
+ * commands of the matrix display options in the GUI.
+ * @author Peter J. Ersts
+ *
+ */
+public enum MatrixFormat {
+	FULL_MATRIX,
+	LOWER_TRIANGULAR_DIAGONAL,
+	LOWER_TRIANGULAR;
+
+	/**
+	 * @return					Index of the first location that has a row in the matrix
+	 */
+	public int firstRow() {
+		return this == LOWER_TRIANGULAR ? 1 : 0;
+	}
+
+	/**
+	 * @param size				Number of locations
+	 * @param row				Index of the location represented by the row
+	 * @return					Number of distances in the row, distances are always for locations 0 to rowLength-1
+	 */
+	public int rowLength(int size, int row) {
+		switch(this) {
+			case FULL_MATRIX:
+				return size;
+			case LOWER_TRIANGULAR_DIAGONAL:
+				return row+1;
+			default:
+				return row;
+		}
+	}
+
+	/**
+	 * @param size				Number of locations
+	 * @return					Number of labels in the header row
+	 */
+	public int headerLength(int size) {
+		return this == LOWER_TRIANGULAR ? size-1 : size;
+	}
+
+	/**
+	 * Finds the matrix format matching a name, ignoring case.
+	 * @param name				Name of the format, e.g., "FULL_MATRIX"
+	 * @return					The matching format or null if the name is not recognized
+	 */
+	public static MatrixFormat fromName(String name) {
+		for(MatrixFormat format : values())
+			if(format.name().equalsIgnoreCase(name))
+				return format;
+		return null;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+** File: MatrixTable.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableColumnModel;
+import javax.swing.table.TableColumnModel;
+import javax.swing.table.TableModel;
+
+/**
+ * JTable for matrices with many columns.  JTable and DefaultTableColumnModel find the column at a position, and the
+ * position of a column, by adding up the widths of the columns before it, which is slow when a matrix has tens of
+ * thousands of columns and is done for every painted cell.  All columns of this table have the same width and can
+ * neither be resized nor moved, so both are a multiplication or a division.  Only left to right orientations are
+ * supported.
+ * @author Peter J. Ersts
+ *
+ */
+class MatrixTable extends JTable {
+	private static final long serialVersionUID = 1L;
+	/** \brief Width of every column, the default width of a TableColumn */
+	static final int COLUMN_WIDTH = 75;
+
+	/**
+	 * Constructor
+	 * @param theModel			The matrix, see MatrixTableModel
+	 */
+	MatrixTable(TableModel theModel) {
+		super(theModel);
+		setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+		setCellSelectionEnabled(true);
+		getTableHeader().setReorderingAllowed(false);
+		getTableHeader().setResizingAllowed(false);
+	}
+
+	protected TableColumnModel createDefaultColumnModel() {
+		return new UniformColumnModel();
+	}
+
+	public int columnAtPoint(Point point) {
+		return getColumnModel().getColumnIndexAtX(point.x);
+	}
+
+	public Rectangle getCellRect(int row, int column, boolean includeSpacing) {
+		Rectangle rectangle = new Rectangle();
+		boolean valid = true;
+		if(row < 0)
+			valid = false;
+		else if(row >= getRowCount()) {
+			rectangle.y = getHeight();
+			valid = false;
+		}
+		else {
+			rectangle.height = getRowHeight();
+			rectangle.y = row*rectangle.height;
+		}
+		if(column < 0)
+			valid = false;
+		else if(column >= getColumnCount()) {
+			rectangle.x = getWidth();
+			valid = false;
+		}
+		else {
+			rectangle.width = COLUMN_WIDTH;
+			rectangle.x = column*COLUMN_WIDTH;
+		}
+		if(valid && !includeSpacing) {
+			int rowMargin = Math.min(getRowMargin(), rectangle.height);
+			int columnMargin = Math.min(getColumnModel().getColumnMargin(), rectangle.width);
+			rectangle.setBounds(rectangle.x + columnMargin/2, rectangle.y + rowMargin/2, rectangle.width - columnMargin, rectangle.height - rowMargin);
+		}
+		return rectangle;
+	}
+
+	/*
+	 * Column model whose columns all have the width COLUMN_WIDTH
+	 */
+	private static class UniformColumnModel extends DefaultTableColumnModel {
+		private static final long serialVersionUID = 1L;
+
+		public int getColumnIndexAtX(int x) {
+			if(x < 0)
+				return -1;
+			int column = x / COLUMN_WIDTH;
+			return column < getColumnCount() ? column : -1;
+		}
+
+		public int getTotalColumnWidth() {
+			return getColumnCount()*COLUMN_WIDTH;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+** File: MatrixTableModel.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import javax.swing.table.AbstractTableModel;
+
+import org.amnh.cbc.core.FixedPrecisionFormatter;
+
+/**
+ * Table view of a DistanceMatrix that reads and formats a cell only when the table asks for it, i.e., when the cell is
+ * visible.  With a LazyDistanceMatrix nothing is stored per cell, so a matrix of any size can be scrolled, and the
+ * text of each cell is the one written by GeographicDistanceMatrixGeneratorEngine.generateMatrix.  Rows and columns follow the text
+ * matrix: cells right of the diagonal of a lower triangular matrix are empty, and the first location has no row in a
+ * LOWER_TRIANGULAR matrix.  The labels of the rows are shown by a LabelModel, see rowLabels().  Like all Swing models
+ * it must only be used on the event dispatch thread.
+ * @author Peter J. Ersts
+ *
+ */
+public class MatrixTableModel extends AbstractTableModel {
+	private static final long serialVersionUID = 1L;
+
+	private final DistanceMatrix cvMatrix;
+	private final MatrixFormat cvFormat;
+	private final FixedPrecisionFormatter cvFormatter;
+	/** \brief Buffer receiving the formatted cells */
+	private final char[] cvCell;
+
+	/**
+	 * Constructor
+	 * @param theMatrix			The distances, see GeographicDistanceMatrixGeneratorEngine.distanceMatrix
+	 * @param theFormat			The type of matrix to display
+	 * @param theDecimals		Number of decimals of the distances
+	 */
+	public MatrixTableModel(DistanceMatrix theMatrix, MatrixFormat theFormat, int theDecimals) {
+		cvMatrix = theMatrix;
+		cvFormat = theFormat;
+		cvFormatter = new FixedPrecisionFormatter(theDecimals);
+		cvCell = new char[cvFormatter.maximumLength()];
+	}
+
+	/**
+	 * @return					An empty matrix, shown before a file is loaded
+	 */
+	public static MatrixTableModel empty() {
+		return new MatrixTableModel(new LazyDistanceMatrix(LocationTable.empty(), 1.0), MatrixFormat.FULL_MATRIX, 2);
+	}
+
+	public int getRowCount() {
+		return Math.max(0, cvMatrix.size() - cvFormat.firstRow());
+	}
+
+	public int getColumnCount() {
+		return cvFormat.headerLength(cvMatrix.size());
+	}
+
+	public String getColumnName(int column) {
+		return cvMatrix.label(column);
+	}
+
+	public Object getValueAt(int row, int column) {
+		int y = row + cvFormat.firstRow();
+		if(column >= cvFormat.rowLength(cvMatrix.size(), y))
+			return "";
+		double distance = cvMatrix.get(y, column);
+		if(Double.isNaN(distance))
+			return "ERROR";
+		return new String(cvCell, 0, cvFormatter.format(distance, cvCell, 0));
+	}
+
+	/**
+	 * @return					A single column model holding the label of each row, to be shown as the row header of the table
+	 */
+	public LabelModel rowLabels() {
+		return new LabelModel();
+	}
+
+	/*
+	 * The labels of the rows of the matrix
+	 */
+	public class LabelModel extends AbstractTableModel {
+		private static final long serialVersionUID = 1L;
+
+		public int getRowCount() {
+			return MatrixTableModel.this.getRowCount();
+		}
+
+		public int getColumnCount() {
+			return 1;
+		}
+
+		public String getColumnName(int column) {
+			return "";
+		}
+
+		public Object getValueAt(int row, int column) {
+			return cvMatrix.label(row + cvFormat.firstRow());
+		}
+	}
+}
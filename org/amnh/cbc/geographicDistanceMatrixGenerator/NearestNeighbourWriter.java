@@ -0,0 +1,126 @@
+/*
+** File: NearestNeighbourWriter.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+
+import org.amnh.cbc.core.FixedPrecisionFormatter;
+import org.amnh.cbc.geospatial.SphericalFunctionEngine;
+import org.amnh.cbc.geospatial.UnitVectorTree;
+
+/*
+ * Writes the k nearest reference locations of each query location, one line per query location in input order:
+ * the label of the location followed by the label and distance of each neighbour, nearest first, all separated by
+ * tabs.  Neighbours at the same distance are ordered by their index.  A query location that is not valid is followed
+ * by a single ERROR, and reference locations that are not valid are never neighbours.  When the queries and the
+ * references are the same locations a location is not its own neighbour.
+ *
+ * The neighbours come from the UnitVectorTree of the references and their great circle distances are then computed
+ * exactly.  The rows are searched in blocks, see RowBlockWriter.
+ */
+class NearestNeighbourWriter extends RowBlockWriter {
+	private final LocationTable queries;
+	private final LocationTable references;
+	private final double scale;
+	private final int decimals;
+	private final int k;
+	private UnitVectorTree tree;
+
+	/**
+	 * Constructor
+	 * @param theQueries		Locations whose neighbours are written
+	 * @param theReferences		Locations among which the neighbours are searched, may be theQueries
+	 * @param theScale			Radians to unit multiplier of the output distances
+	 * @param theDecimals		Number of decimals of the output distances
+	 * @param theK				Number of neighbours of each location
+	 */
+	NearestNeighbourWriter(LocationTable theQueries, LocationTable theReferences, double theScale, int theDecimals, int theK) {
+		queries = theQueries;
+		references = theReferences;
+		scale = theScale;
+		decimals = theDecimals;
+		k = theK;
+	}
+
+	/**
+	 * Writes the neighbours
+	 * @param output			Destination of the lines, it is not closed
+	 * @param pool				Pool to search the rows on, null to search them on the calling thread
+	 * @param progress			Receiver of the number of rows written, may be null
+	 * @throws IOException
+	 */
+	void write(Writer output, ForkJoinPool pool, ProgressReporter progress) throws IOException {
+		tree = references.tree();
+		writeRows(queries.size(), output, pool, progress);
+	}
+
+	protected void formatBlock(int firstRow, int lastRow, Block block) {
+		FixedPrecisionFormatter formatter = new FixedPrecisionFormatter(decimals);
+		UnitVectorTree.Neighbours neighbours = new UnitVectorTree.Neighbours(k);
+		int[] indices = new int[k];
+		double[] distances = new double[k];
+		for(int row = firstRow; row < lastRow; row++) {
+			block.appendLabel(queries, row);
+			if(!queries.isValid(row)) {
+				block.reserve(7);
+				block.append('\t');
+				for(char c : "ERROR\n".toCharArray())
+					block.append(c);
+				continue;
+			}
+			double x1 = queries.x[row], y1 = queries.y[row], z1 = queries.z[row];
+			tree.nearest(x1, y1, z1, queries == references ? row : -1, neighbours);
+
+			/*
+			 * Rank on the exact distances, rounding of the chords may swap nearly equal neighbours
+			 */
+			int count = neighbours.count();
+			for(int n = 0; n < count; n++) {
+				int index = neighbours.index(n);
+				double distance = SphericalFunctionEngine.centralAngle(x1, y1, z1, neighbours.x(n), neighbours.y(n), neighbours.z(n))*scale;
+				int m = n;
+				while(m > 0 && (distances[m-1] > distance || (distances[m-1] == distance && indices[m-1] > index))) {
+					distances[m] = distances[m-1];
+					indices[m] = indices[m-1];
+					m--;
+				}
+				distances[m] = distance;
+				indices[m] = index;
+			}
+			for(int n = 0; n < count; n++) {
+				block.reserve(1);
+				block.append('\t');
+				block.appendLabel(references, indices[n]);
+				block.reserve(2 + formatter.maximumLength());
+				block.append('\t');
+				block.length = formatter.format(distances[n], block.text, block.length);
+			}
+			block.reserve(1);
+			block.append('\n');
+		}
+	}
+}
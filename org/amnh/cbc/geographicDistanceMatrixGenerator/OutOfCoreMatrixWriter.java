@@ -0,0 +1,246 @@
+/*
+** File: OutOfCoreMatrixWriter.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.amnh.cbc.core.BlockCompressedOutputStream;
+
+/*
+ * Writes a text matrix whose rows do not fit in memory together.  The rows are split into bands whose height is
+ * chosen so that one band per thread fits in the memory budget.  Each thread computes whole bands on its own
+ * MatrixBand and writes them to a temporary part file next to the output, while the calling thread appends the
+ * finished parts to the output in order and deletes them.  At most two bands per thread are scheduled ahead of the
+ * one being appended, which bounds the disk space taken by the parts.  Rows have different lengths, so the parts
+ * can not be written in place, but concatenating them is a sequential copy done by the file system.  The text is
+ * identical to the one written by GeographicDistanceMatrixGeneratorEngine.generateMatrix.
+ *
+ * A compressed output is made of independent gzip members, see BlockCompressedOutputStream, so each part is
+ * compressed by the thread that computed it and the concatenated parts are a valid gzip file.
+ */
+class OutOfCoreMatrixWriter {
+	/** \brief Size, in bytes, of the buffer used when writing a part file */
+	private static final int PART_BUFFER_SIZE = 1 << 16;
+
+	private final LocationTable locations;
+	private final MatrixFormat format;
+	private final double scale;
+	private final int decimals;
+	private final int parallelism;
+	/** \brief Number of rows computed and written together by a thread */
+	private final int bandHeight;
+	/** \brief Flag to indicate that the bands compute by site, see SiteIndex */
+	private final boolean bySite;
+	/** \brief Flag to indicate that the output is gzip compressed */
+	private final boolean compressed;
+
+	/**
+	 * Constructor
+	 * @param theLocations		The locations, rows and columns of the matrix
+	 * @param theFormat			The type of matrix to generate
+	 * @param theScale			Radians to unit multiplier of the output distances
+	 * @param theDecimals		Number of decimals of the output distances
+	 * @param theParallelism	Number of threads computing bands
+	 * @param theMemoryBudget	Memory, in bytes, that the bands of all threads may use together
+	 * @param theCompressed		True to write the output gzip compressed
+	 */
+	OutOfCoreMatrixWriter(LocationTable theLocations, MatrixFormat theFormat, double theScale, int theDecimals, int theParallelism, long theMemoryBudget, boolean theCompressed) {
+		locations = theLocations;
+		format = theFormat;
+		scale = theScale;
+		decimals = theDecimals;
+		parallelism = Math.max(1, theParallelism);
+		compressed = theCompressed;
+		bySite = locations.sites().worthwhile();
+		long rowMemory = MatrixBand.rowMemory(Math.max(1, locations.size()), scale, decimals);
+		if(bySite)
+			rowMemory += MatrixBand.siteMemory(locations.sites().count(), scale, decimals);
+		long rows = theMemoryBudget / (parallelism * rowMemory);
+		bandHeight = (int)Math.max(1, Math.min(rows, Math.max(1, locations.size())));
+	}
+
+	/**
+	 * @return					Number of rows computed and written together by a thread
+	 */
+	int bandHeight() {
+		return bandHeight;
+	}
+
+	/**
+	 * Writes the matrix
+	 * @param output			The output file, replaced if it exists
+	 * @param header			The header row, without a new line
+	 * @param progress			Receiver of the number of rows written, may be null
+	 * @throws IOException
+	 */
+	void write(File output, String header, ProgressReporter progress) throws IOException {
+		int size = locations.size();
+		File directory = output.getAbsoluteFile().getParentFile();
+		ConcurrentLinkedQueue<File> parts = new ConcurrentLinkedQueue<File>();
+		BlockingQueue<MatrixBand> bands = new ArrayBlockingQueue<MatrixBand>(parallelism);
+		for(int x = 0; x < parallelism; x++) {
+			MatrixBand band = new MatrixBand(locations, format, scale, decimals, bandHeight);
+			if(bySite)
+				band.deduplicateSites();
+			bands.add(band);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		List<Future<File>> results = new ArrayList<Future<File>>();
+		int bandCount = (size - format.firstRow() + bandHeight - 1) / bandHeight;
+		try {
+			for(int band = 0; band < Math.min(bandCount, 2*parallelism); band++)
+				results.add(submit(pool, band, directory, bands, parts));
+
+			FileOutputStream stream = new FileOutputStream(output);
+			try {
+				/*
+				 * The header is compressed to memory so its stream, and deflater, can be closed without closing the output
+				 */
+				ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+				Writer writer = new OutputStreamWriter(compressed ? new BlockCompressedOutputStream(headerBytes, 1, Deflater.DEFAULT_COMPRESSION, false) : headerBytes);
+				writer.write(header);
+				writer.write('\n');
+				writer.close();
+				headerBytes.writeTo(stream);
+				FileChannel target = stream.getChannel();
+				for(int band = 0; band < bandCount; band++) {
+					File part = results.get(band).get();
+					if(results.size() < bandCount)
+						results.add(submit(pool, results.size(), directory, bands, parts));
+					FileChannel source = FileChannel.open(part.toPath(), StandardOpenOption.READ);
+					try {
+						long length = source.size();
+						for(long position = 0; position < length; )
+							position += source.transferTo(position, length - position, target);
+					}
+					finally {
+						source.close();
+					}
+					part.delete();
+					if(progress != null)
+						progress.setOverallValue(Math.min(size, format.firstRow() + (band+1)*bandHeight) - 1);
+				}
+				if(compressed)
+					BlockCompressedOutputStream.writeEndOfFile(stream);
+			}
+			finally {
+				stream.close();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the matrix");
+		}
+		catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			if(e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+			throw new IOException("A problem was encountered while computing the matrix", e.getCause());
+		}
+		finally {
+			for(Future<File> result : results)
+				result.cancel(false);
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for(File part : parts)
+				part.delete();
+		}
+	}
+
+	private Future<File> submit(ForkJoinPool pool, int band, File directory, BlockingQueue<MatrixBand> bands, ConcurrentLinkedQueue<File> parts) {
+		int bandStart = format.firstRow() + band*bandHeight;
+		return pool.submit(new BandTask(bandStart, Math.min(locations.size(), bandStart + bandHeight), directory, bands, parts));
+	}
+
+	/*
+	 * Computes one band on a MatrixBand borrowed from the queue and writes its rows to a new part file
+	 */
+	private class BandTask implements Callable<File> {
+		private final int bandStart;
+		private final int bandEnd;
+		private final File directory;
+		private final BlockingQueue<MatrixBand> bands;
+		private final ConcurrentLinkedQueue<File> parts;
+
+		BandTask(int theBandStart, int theBandEnd, File theDirectory, BlockingQueue<MatrixBand> theBands, ConcurrentLinkedQueue<File> theParts) {
+			bandStart = theBandStart;
+			bandEnd = theBandEnd;
+			directory = theDirectory;
+			bands = theBands;
+			parts = theParts;
+		}
+
+		public File call() throws IOException, InterruptedException {
+			File part = File.createTempFile("matrix", ".part", directory);
+			parts.add(part);
+			MatrixBand band = bands.take();
+			try {
+				band.compute(bandStart, bandEnd, null);
+				OutputStream stream = new FileOutputStream(part);
+				if(compressed)
+					stream = new BlockCompressedOutputStream(stream, 1, Deflater.DEFAULT_COMPRESSION, false);
+				Writer writer = new BufferedWriter(new OutputStreamWriter(stream), PART_BUFFER_SIZE);
+				try {
+					for(int y = bandStart; y < bandEnd; y++)
+						band.writeRow(y, writer);
+				}
+				finally {
+					writer.close();
+				}
+			}
+			finally {
+				bands.add(band);
+			}
+			return part;
+		}
+	}
+}
@@ -8,7 +8,7 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JProgressBar;
 
-public class ProgressDialog extends JFrame {
+public class ProgressDialog extends JFrame implements ProgressReporter {
 
 	private JProgressBar cvOverallProgressBar;
 	private JProgressBar cvRowProgressBar;
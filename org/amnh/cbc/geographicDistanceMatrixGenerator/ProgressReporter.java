@@ -0,0 +1,51 @@
+/*
+** File: ProgressReporter.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+** 
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+** 
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+** 
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+/**
+ * Receives the progress of the GeographicDistanceMatrixGeneratorEngine.  The ProgressDialog reports it in a window,
+ * the GeographicDistanceMatrixGeneratorCLI on the standard error stream, so the engine does not depend on AWT.
+ * @author Peter J. Ersts
+ *
+ */
+public interface ProgressReporter {
+	
+	public void setOverallMaximum( int theMaximum );
+	
+	public void setOverallMinimum( int theMinimum );
+	
+	public void setOverallValue( int theProgress );
+	
+	public void setRowMaximum( int theMaximum );
+	
+	public void setRowMinimum( int theMinimum );
+	
+	public void setRowValue( int theProgress );
+	
+	/**
+	 * @param isVisible			True when a matrix starts being generated, false once it is finished
+	 */
+	public void setVisible( boolean isVisible );
+}
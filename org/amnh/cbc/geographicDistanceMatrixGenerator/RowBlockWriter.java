@@ -0,0 +1,158 @@
+/*
+** File: RowBlockWriter.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Writes text produced independently for each row, e.g., the pairs within a cutoff or the nearest neighbours of each
+ * location.  The rows are processed in blocks of BLOCK_SIZE rows, up to BLOCKS_PER_ROUND blocks at a time shared among
+ * the threads of the pool, and each round is written in order, so the output does not depend on the number of threads.
+ * Subclasses format the rows of a block with formatBlock, which is called by several threads at the same time.
+ */
+abstract class RowBlockWriter {
+	/** \brief Number of rows formatted together by a thread */
+	static final int BLOCK_SIZE = 256;
+	/** \brief Number of blocks held in memory before they are written */
+	private static final int BLOCKS_PER_ROUND = 64;
+
+	/** \brief Text of each block of the current round, reused from round to round */
+	private final Block[] blocks;
+
+	/*
+	 * Growable text of one block
+	 */
+	static final class Block {
+		char[] text = new char[1024];
+		int length;
+
+		/**
+		 * Makes sure that a number of characters can be appended
+		 */
+		void reserve(int characters) {
+			if(text.length - length < characters)
+				text = Arrays.copyOf(text, Math.max(2*text.length, length + characters));
+		}
+
+		void append(char c) {
+			text[length++] = c;
+		}
+
+		/**
+		 * Appends the decimal digits of a non negative int, room must have been reserved
+		 */
+		void append(int value) {
+			int digits = 1;
+			for(int v = value; v >= 10; v /= 10)
+				digits++;
+			for(int n = length + digits - 1; n >= length; n--) {
+				text[n] = (char)('0' + value % 10);
+				value /= 10;
+			}
+			length += digits;
+		}
+
+		/**
+		 * Appends the label of a location, reserving the room it needs
+		 */
+		void appendLabel(LocationTable locations, int index) {
+			reserve(locations.labelCapacity(index));
+			length = locations.copyLabel(index, text, length);
+		}
+	}
+
+	RowBlockWriter() {
+		blocks = new Block[BLOCKS_PER_ROUND];
+	}
+
+	/**
+	 * Formats the rows firstRow to lastRow-1, appending their text to block.  Called by several threads at the same time.
+	 */
+	protected abstract void formatBlock(int firstRow, int lastRow, Block block);
+
+	/**
+	 * Writes the text of all rows
+	 * @param rows				Number of rows
+	 * @param output			Destination of the text, it is not closed
+	 * @param pool				Pool to format the rows on, null to format them on the calling thread
+	 * @param progress			Receiver of the number of rows written, may be null
+	 * @throws IOException
+	 */
+	void writeRows(int rows, Writer output, ForkJoinPool pool, ProgressReporter progress) throws IOException {
+		int blockCount = (rows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		for(int first = 0; first < blockCount; first += BLOCKS_PER_ROUND) {
+			int last = Math.min(blockCount, first + BLOCKS_PER_ROUND);
+			if(pool == null)
+				formatBlocks(rows, first, first, last);
+			else
+				pool.invoke(new BlockTask(rows, first, first, last));
+			for(int block = first; block < last; block++)
+				output.write(blocks[block - first].text, 0, blocks[block - first].length);
+			if(progress != null)
+				progress.setOverallValue(Math.min(rows, last*BLOCK_SIZE) - 1);
+		}
+	}
+
+	private void formatBlocks(int rows, int roundStart, int firstBlock, int lastBlock) {
+		for(int block = firstBlock; block < lastBlock; block++) {
+			if(blocks[block - roundStart] == null)
+				blocks[block - roundStart] = new Block();
+			Block text = blocks[block - roundStart];
+			text.length = 0;
+			formatBlock(block*BLOCK_SIZE, Math.min(rows, (block+1)*BLOCK_SIZE), text);
+		}
+	}
+
+	/*
+	 * Splits a range of blocks in half until a single block remains
+	 */
+	private class BlockTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int rows;
+		private final int roundStart;
+		private final int firstBlock;
+		private final int lastBlock;
+
+		BlockTask(int theRows, int theRoundStart, int theFirstBlock, int theLastBlock) {
+			rows = theRows;
+			roundStart = theRoundStart;
+			firstBlock = theFirstBlock;
+			lastBlock = theLastBlock;
+		}
+
+		protected void compute() {
+			if(lastBlock - firstBlock <= 1)
+				formatBlocks(rows, roundStart, firstBlock, lastBlock);
+			else {
+				int middle = (firstBlock + lastBlock) >>> 1;
+				invokeAll(new BlockTask(rows, roundStart, firstBlock, middle), new BlockTask(rows, roundStart, middle, lastBlock));
+			}
+		}
+	}
+}
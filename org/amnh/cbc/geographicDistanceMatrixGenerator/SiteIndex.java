@@ -0,0 +1,132 @@
+/*
+** File: SiteIndex.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.util.Arrays;
+
+/*
+ * The unique sites of a LocationTable: valid locations whose unit vectors are identical, e.g., several specimens
+ * collected at the same locality, share a site.  Sites are numbered in the order of their first location.  The
+ * distance between two locations only depends on their unit vectors, so a distance computed for a pair of sites is
+ * exactly the one of every pair of their locations.  Vectors are compared bit for bit through an open addressing
+ * hash table, so two coordinates that only look alike, e.g., 0.0 and -0.0, are different sites, which costs a few
+ * distances but never changes one.
+ */
+final class SiteIndex {
+	/** \brief Largest ratio of sites to valid locations for which computing by site is faster than mirroring, see MatrixBand */
+	static final double DEDUPLICATION_RATIO = 0.5;
+
+	/** \brief Site of each location, -1 if it is not valid */
+	private final int[] sites;
+	private final int count;
+	private final int validCount;
+	/** \brief Unit vector of each site */
+	final double[] x;
+	final double[] y;
+	final double[] z;
+
+	/**
+	 * Constructor
+	 * @param theLocations		The locations
+	 */
+	SiteIndex(LocationTable theLocations) {
+		int size = theLocations.size();
+		sites = new int[size];
+		int capacity = Integer.highestOneBit(Math.max(2, 2*size - 1)) << 1;
+		int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		int mask = capacity - 1;
+		double[] vx = theLocations.x, vy = theLocations.y, vz = theLocations.z;
+		int[] first = new int[size];
+		int sitesFound = 0;
+		int valid = 0;
+		for(int index = 0; index < size; index++) {
+			if(!theLocations.isValid(index)) {
+				sites[index] = -1;
+				continue;
+			}
+			valid++;
+			long bx = Double.doubleToRawLongBits(vx[index]);
+			long by = Double.doubleToRawLongBits(vy[index]);
+			long bz = Double.doubleToRawLongBits(vz[index]);
+			long hash = (bx * 0x9E3779B97F4A7C15L + by) * 0x9E3779B97F4A7C15L + bz;
+			int slot = (int)((hash ^ (hash >>> 29)) * 0xBF58476D1CE4E5B9L >>> 32) & mask;
+			while(true) {
+				int site = table[slot];
+				if(site < 0) {
+					table[slot] = sitesFound;
+					first[sitesFound] = index;
+					sites[index] = sitesFound++;
+					break;
+				}
+				int other = first[site];
+				if(Double.doubleToRawLongBits(vx[other]) == bx && Double.doubleToRawLongBits(vy[other]) == by && Double.doubleToRawLongBits(vz[other]) == bz) {
+					sites[index] = site;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+		count = sitesFound;
+		validCount = valid;
+		x = new double[count];
+		y = new double[count];
+		z = new double[count];
+		for(int site = 0; site < count; site++) {
+			x[site] = vx[first[site]];
+			y[site] = vy[first[site]];
+			z[site] = vz[first[site]];
+		}
+	}
+
+	/**
+	 * @param index				Index of a location
+	 * @return					Site of the location, -1 if it is not valid
+	 */
+	int site(int index) {
+		return sites[index];
+	}
+
+	/**
+	 * @return					Number of sites
+	 */
+	int count() {
+		return count;
+	}
+
+	/**
+	 * @return					Number of valid locations per site, 1 when every location has its own coordinates
+	 */
+	double compressionRatio() {
+		return count == 0 ? 1.0 : (double)validCount / count;
+	}
+
+	/**
+	 * @return					True if there are few enough sites for computing a matrix by site to pay off, see DEDUPLICATION_RATIO
+	 */
+	boolean worthwhile() {
+		return count <= DEDUPLICATION_RATIO*validCount;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+** File: SparseMatrixWriter.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.amnh.cbc.core.FixedPrecisionFormatter;
+import org.amnh.cbc.geospatial.SphericalFunctionEngine;
+import org.amnh.cbc.geospatial.UnitVectorTree;
+
+/*
+ * Writes the pairs of locations that are at most a cutoff distance apart as an edge list, one "row<TAB>column<TAB>
+ * distance" line per pair, where row and column are the indices of the locations in the input file (starting at 0)
+ * and column < row, i.e., the cells of the LOWER_TRIANGULAR matrix that are within the cutoff.  Lines are ordered by
+ * row then column.  Locations that are not valid are left out.
+ *
+ * The candidates of each row come from a UnitVectorTree search, so the work grows with the number of locations plus
+ * the number of close pairs rather than with the square of the number of locations.  The rows are searched in
+ * blocks, see RowBlockWriter.
+ */
+class SparseMatrixWriter extends RowBlockWriter {
+	/** \brief Relative margin added to the chord so rounding never drops a pair that is within the cutoff */
+	private static final double CHORD_MARGIN = 1e-9;
+
+	private final LocationTable locations;
+	private final double scale;
+	private final int decimals;
+	private final double cutoff;
+	private final double chord;
+	private UnitVectorTree tree;
+	/** \brief Number of pairs written */
+	private long pairs;
+
+	/**
+	 * Constructor
+	 * @param theLocations		The locations
+	 * @param theScale			Radians to unit multiplier of the output distances
+	 * @param theDecimals		Number of decimals of the output distances
+	 * @param theCutoff			Largest distance written, in the output units
+	 */
+	SparseMatrixWriter(LocationTable theLocations, double theScale, int theDecimals, double theCutoff) {
+		locations = theLocations;
+		scale = theScale;
+		decimals = theDecimals;
+		cutoff = theCutoff;
+		chord = UnitVectorTree.chord(theCutoff / theScale) * (1 + CHORD_MARGIN) + CHORD_MARGIN;
+	}
+
+	/**
+	 * Writes the pairs
+	 * @param output			Destination of the lines, it is not closed
+	 * @param pool				Pool to search the rows on, null to search them on the calling thread
+	 * @param progress			Receiver of the number of rows written, may be null
+	 * @throws IOException
+	 */
+	void write(Writer output, ForkJoinPool pool, ProgressReporter progress) throws IOException {
+		tree = locations.tree();
+		pairs = 0;
+		writeRows(locations.size(), output, pool, progress);
+	}
+
+	/**
+	 * @return					Number of pairs written by the last call to write
+	 */
+	long pairs() {
+		return pairs;
+	}
+
+	protected void formatBlock(int firstRow, int lastRow, Block block) {
+		FixedPrecisionFormatter formatter = new FixedPrecisionFormatter(decimals);
+		Candidates candidates = new Candidates();
+		long found = 0;
+		for(int row = firstRow; row < lastRow; row++) {
+			if(!locations.isValid(row))
+				continue;
+			double x1 = locations.x[row], y1 = locations.y[row], z1 = locations.z[row];
+			candidates.row = row;
+			candidates.count = 0;
+			tree.search(x1, y1, z1, chord, candidates);
+			Arrays.sort(candidates.columns, 0, candidates.count);
+			for(int n = 0; n < candidates.count; n++) {
+				int column = candidates.columns[n];
+				double distance = SphericalFunctionEngine.centralAngle(x1, y1, z1, locations.x[column], locations.y[column], locations.z[column])*scale;
+				if(!(distance <= cutoff))
+					continue;
+				block.reserve(24 + formatter.maximumLength());
+				block.append(row);
+				block.append('\t');
+				block.append(column);
+				block.append('\t');
+				block.length = formatter.format(distance, block.text, block.length);
+				block.append('\n');
+				found++;
+			}
+		}
+		synchronized(this) {
+			pairs += found;
+		}
+	}
+
+	/*
+	 * Collects the columns, left of the diagonal, found by a search of the tree
+	 */
+	private static class Candidates implements UnitVectorTree.Visitor {
+		int row;
+		int[] columns = new int[64];
+		int count;
+
+		public void visit(int index, double chordSquared) {
+			if(index >= row)
+				return;
+			if(count == columns.length)
+				columns = Arrays.copyOf(columns, 2*count);
+			columns[count++] = index;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+** File: StatisticsCollector.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Folds the distances of every pair of locations, the cells below the diagonal, into a DistanceStatistics without
+ * storing the matrix.  The distances are computed band by band by a MatrixBand, by site when many locations share
+ * their coordinates, and the rows of each band are then shared among the threads, each folding its rows into its own
+ * summary.  The summaries of the threads are merged at the end, so the memory used is the one of a band plus one
+ * summary per thread.
+ */
+class StatisticsCollector {
+	private final LocationTable locations;
+	private final int parallelism;
+
+	/**
+	 * Constructor
+	 * @param theLocations		The locations
+	 * @param theParallelism	Number of threads computing and folding the distances
+	 */
+	StatisticsCollector(LocationTable theLocations, int theParallelism) {
+		locations = theLocations;
+		parallelism = Math.max(1, theParallelism);
+	}
+
+	/**
+	 * Summarizes the distances
+	 * @param theScale			Radians to unit multiplier of the distances
+	 * @param theClassWidth		Width of the distance classes, in the units of the distances
+	 * @param progress			Receiver of the number of rows folded, may be null
+	 * @return					The summary of the distances of all pairs
+	 */
+	DistanceStatistics collect(double theScale, double theClassWidth, ProgressReporter progress) {
+		final double largest = Math.PI * theScale;
+		final double classWidth = theClassWidth;
+		final List<DistanceStatistics> summaries = new ArrayList<DistanceStatistics>();
+		ThreadLocal<DistanceStatistics> summary = new ThreadLocal<DistanceStatistics>() {
+			protected DistanceStatistics initialValue() {
+				DistanceStatistics statistics = new DistanceStatistics(largest, classWidth);
+				synchronized(summaries) {
+					summaries.add(statistics);
+				}
+				return statistics;
+			}
+		};
+		DistanceStatistics total = new DistanceStatistics(largest, classWidth);
+
+		int size = locations.size();
+		if(progress != null) {
+			progress.setOverallMinimum( 0 );
+			progress.setOverallMaximum( size - 1 );
+			progress.setOverallValue( 0 );
+		}
+		MatrixBand band = new MatrixBand(locations, MatrixFormat.LOWER_TRIANGULAR, theScale, 0);
+		if(locations.sites().worthwhile())
+			band.deduplicateSites();
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			for(int bandStart = 1; bandStart < size; bandStart += MatrixBand.TILE_SIZE) {
+				int bandEnd = Math.min(size, bandStart + MatrixBand.TILE_SIZE);
+				band.computeValues(bandStart, bandEnd, pool);
+				if(pool == null)
+					fold(band, bandStart, bandEnd, total);
+				else
+					pool.invoke(new FoldTask(band, bandStart, bandEnd, summary));
+				if(progress != null)
+					progress.setOverallValue( bandEnd - 1 );
+			}
+		}
+		finally {
+			if(pool != null)
+				pool.shutdown();
+		}
+		for(DistanceStatistics statistics : summaries)
+			total.merge(statistics);
+		return total;
+	}
+
+	/**
+	 * Adds the distances of rows of the current band of a MatrixBand to a summary
+	 */
+	private static void fold(MatrixBand band, int firstRow, int lastRow, DistanceStatistics statistics) {
+		for(int y = firstRow; y < lastRow; y++)
+			for(int x = 0; x < y; x++)
+				statistics.add(band.value(y, x));
+	}
+
+	/*
+	 * Splits a range of rows in half until a single row remains, which is folded into the summary of the thread
+	 */
+	private static class FoldTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final MatrixBand band;
+		private final int firstRow;
+		private final int lastRow;
+		private final ThreadLocal<DistanceStatistics> summary;
+
+		FoldTask(MatrixBand theBand, int theFirstRow, int theLastRow, ThreadLocal<DistanceStatistics> theSummary) {
+			band = theBand;
+			firstRow = theFirstRow;
+			lastRow = theLastRow;
+			summary = theSummary;
+		}
+
+		protected void compute() {
+			if(lastRow - firstRow <= 1)
+				fold(band, firstRow, lastRow, summary.get());
+			else {
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new FoldTask(band, firstRow, middle, summary), new FoldTask(band, middle, lastRow, summary));
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+** File: StoredDistanceMatrix.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geographicDistanceMatrixGenerator;
+
+/**
+ * Distance matrix holding the distances below the diagonal in the heap, in the condensed layout of
+ * GeographicDistanceMatrixGeneratorEngine.condensedMatrix: the distance between locations i and j, j < i, at index
+ * i(i-1)/2 + j.  A read is an array access, at the cost of 4N(N-1) bytes, about 4 GB for 32,000 locations.
+ * @author Peter J. Ersts
+ *
+ */
+public class StoredDistanceMatrix extends AbstractDistanceMatrix {
+	private final LocationTable locations;
+	private final double[] distances;
+
+	/**
+	 * Constructor
+	 * @param theLocations		The locations, rows and columns of the matrix
+	 * @param theDistances		The condensed distances of the locations, not copied
+	 * @throws IllegalArgumentException	If the number of distances does not match the number of locations
+	 */
+	public StoredDistanceMatrix(LocationTable theLocations, double[] theDistances) {
+		if(theDistances.length != pairCount(theLocations.size()))
+			throw new IllegalArgumentException("A condensed matrix of " + theLocations.size() + " locations must hold " + pairCount(theLocations.size()) + " distances");
+		locations = theLocations;
+		distances = theDistances;
+	}
+
+	/**
+	 * @param size				Number of locations
+	 * @return					Number of distances in a condensed matrix of the locations, size(size-1)/2
+	 */
+	public static long pairCount(int size) {
+		return (long)size*(size-1)/2;
+	}
+
+	/**
+	 * @param row				Index of a location
+	 * @param column			Index of another location
+	 * @return					Index of the distance between the locations in a condensed matrix, i(i-1)/2 + j for j < i
+	 */
+	public static int index(int row, int column) {
+		return row > column ? (int)pairCount(row) + column : (int)pairCount(column) + row;
+	}
+
+	/**
+	 * Chooses the locations of condensed matrices to keep so that no distance between two kept locations is missing
+	 * (NaN).  The location with the most missing distances to the locations still kept, the first on ties, is left
+	 * out until none is missing, so a location whose coordinates are not valid is left out rather than every location
+	 * it has no distance to, wherever it is in the matrices.
+	 * @param size				Number of locations
+	 * @param candidates		Locations that may be kept, e.g., those with valid coordinates, null for all of them
+	 * @param matrices			Condensed matrices of the locations, a distance is missing when it is NaN in any of them
+	 * @return					True for each location kept
+	 */
+	static boolean[] completeLocations(int size, boolean[] candidates, double[]... matrices) {
+		boolean[] kept = new boolean[size];
+		for(int x = 0; x < size; x++)
+			kept[x] = candidates == null || candidates[x];
+		int[] missing = new int[size];
+		for(int i = 1; i < size; i++) {
+			if(!kept[i])
+				continue;
+			for(int j = 0; j < i; j++) {
+				if(kept[j] && isMissing(matrices, index(i, j))) {
+					missing[i]++;
+					missing[j]++;
+				}
+			}
+		}
+		while(true) {
+			int worst = -1;
+			for(int x = 0; x < size; x++)
+				if(kept[x] && missing[x] > 0 && (worst < 0 || missing[x] > missing[worst]))
+					worst = x;
+			if(worst < 0)
+				return kept;
+			kept[worst] = false;
+			for(int x = 0; x < size; x++)
+				if(kept[x] && x != worst && isMissing(matrices, index(worst, x)))
+					missing[x]--;
+		}
+	}
+
+	/**
+	 * @return					True if the distance at index is NaN in one of the matrices
+	 */
+	private static boolean isMissing(double[][] matrices, int index) {
+		for(double[] matrix : matrices)
+			if(Double.isNaN(matrix[index]))
+				return true;
+		return false;
+	}
+
+	public int size() {
+		return locations.size();
+	}
+
+	public String label(int index) {
+		return locations.label(index);
+	}
+
+	public double get(int row, int column) {
+		if(row == column)
+			return 0.0;
+		return distances[index(row, column)];
+	}
+
+	public void getRow(int row, double[] theDistances) {
+		int size = locations.size();
+		System.arraycopy(distances, (int)pairCount(row), theDistances, 0, row);
+		theDistances[row] = 0.0;
+		for(int x = row + 1, index = index(x, row); x < size; index += x, x++)
+			theDistances[x] = distances[index];
+	}
+}
@@ -0,0 +1,95 @@
+/*
+** File: DistanceUnit.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geospatial;
+
+/**
+ * The units in which the SphericalFunctionEngine can report distances and angles. Each unit knows the
+ * multiplier that converts an angle, expressed in radians, into the unit for a given spheroid radius.
+ * @author Peter J. Ersts
+ *
+ */
+public enum DistanceUnit {
+	METERS("m", false),
+	KILOMETERS("km", false),
+	NAUTICAL_MILES("nm", false),
+	RADIANS("rad", true),
+	DEGREES("deg", true);
+
+	/** \brief Short name used by the String based methods of the SphericalFunctionEngine and the GUIs */
+	private final String abbreviation;
+	/** \brief Flag to indicate if the unit is an angle rather than a length */
+	private final boolean angular;
+
+	private DistanceUnit(String theAbbreviation, boolean isAngular) {
+		abbreviation = theAbbreviation;
+		angular = isAngular;
+	}
+
+	/**
+	 * @return					The short name of the unit, i.e., "m", "km", "nm", "rad" or "deg"
+	 */
+	public String abbreviation() {
+		return abbreviation;
+	}
+
+	/**
+	 * @return					True if the unit is an angle (radians or degrees) and does not depend on the spheroid radius
+	 */
+	public boolean isAngular() {
+		return angular;
+	}
+
+	/**
+	 * Calculates the multiplier that converts an angle expressed in radians into this unit.
+	 * @param spheroidRadius	Radius of spherical representation of the earth, expressed in meters
+	 * @return					The radians to unit multiplier
+	 */
+	public double scale(double spheroidRadius) {
+		switch(this) {
+			case METERS:
+				return spheroidRadius;
+			case KILOMETERS:
+				return spheroidRadius/1000;
+			case NAUTICAL_MILES:
+				return (180.0/Math.PI)*60;
+			case DEGREES:
+				return 180.0/Math.PI;
+			default:
+				return 1.0;
+		}
+	}
+
+	/**
+	 * Finds the unit matching a short name, ignoring case.
+	 * @param theAbbreviation	Short name of the unit, i.e., "m", "km", "nm", "rad" or "deg"
+	 * @return					The matching unit or null if the short name is not recognized
+	 */
+	public static DistanceUnit fromAbbreviation(String theAbbreviation) {
+		for(DistanceUnit unit : values())
+			if(unit.abbreviation.equalsIgnoreCase(theAbbreviation))
+				return unit;
+		return null;
+	}
+}
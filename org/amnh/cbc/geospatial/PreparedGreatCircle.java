@@ -0,0 +1,110 @@
+/*
+** File: PreparedGreatCircle.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geospatial;
+
+/*
+ * The great circle passing through two positions (Point1 and Point2), e.g., a transect leg, stored as the normalized
+ * cross product N of the two positions. N is computed once so that the perpendicular distance of each prepared
+ * sighting, or unit vector, made along the leg only costs one dot product and one asin; a sighting given in degrees
+ * also costs the four sines and cosines of its unit vector.
+ */
+public class PreparedGreatCircle {
+
+	/** \brief Unit normal of the plane containing the great circle */
+	public final double nx;
+	public final double ny;
+	public final double nz;
+
+	/**
+	 * Constructor
+	 * @param longitudePoint1	Longitude of Point1, expressed in in decimal degrees (Great Circle Reference).
+	 * @param latitudePoint1	Latitude of Point1, expressed in in decimal degrees.
+	 * @param longitudePoint2	Longitude of Point2, expressed in in decimal degrees (Great Circle Reference).
+	 * @param latitudePoint2	Latitude of Point2, expressed in in decimal degrees.
+	 */
+	public PreparedGreatCircle(double longitudePoint1, double latitudePoint1, double longitudePoint2, double latitudePoint2) {
+		this(new PreparedPoint(longitudePoint1, latitudePoint1), new PreparedPoint(longitudePoint2, latitudePoint2));
+	}
+
+	/**
+	 * Constructor
+	 * @param point1			Point1 (Great Circle Reference)
+	 * @param point2			Point2 (Great Circle Reference)
+	 */
+	public PreparedGreatCircle(PreparedPoint point1, PreparedPoint point2) {
+		/*
+		 * Cross normalize Point 1 and Point 2 = N
+		 */
+		double x = point1.y*point2.z - point1.z*point2.y;
+		double y = point1.z*point2.x - point1.x*point2.z;
+		double z = point1.x*point2.y - point1.y*point2.x;
+		double length = Math.sqrt(x*x + y*y + z*z);
+		nx = x / length;
+		ny = y / length;
+		nz = z / length;
+	}
+
+	/**
+	 * Calculates the angle between a position (Point3) and the great circle.
+	 * @param longitude			Longitude of Point3, expressed in in decimal degrees (Object of interest).
+	 * @param latitude			Latitude of Point3, expressed in in decimal degrees.
+	 * @return					The perpendicular angle, expressed in radians
+	 */
+	public double perpendicularAngle(double longitude, double latitude) {
+		double longitudeRadians = Math.toRadians(longitude);
+		double latitudeRadians = Math.toRadians(latitude);
+		double cosLatitude = Math.cos(latitudeRadians);
+		return perpendicularAngle(cosLatitude*Math.cos(longitudeRadians), cosLatitude*Math.sin(longitudeRadians), Math.sin(latitudeRadians));
+	}
+
+	/**
+	 * Calculates the angle between a prepared position (Point3) and the great circle.
+	 * @param point				Point3 (Object of interest)
+	 * @return					The perpendicular angle, expressed in radians
+	 */
+	public double perpendicularAngle(PreparedPoint point) {
+		return perpendicularAngle(point.x, point.y, point.z);
+	}
+
+	/**
+	 * Calculates the angle between the earth centered, earth fixed unit vector of a position (Point3), as in
+	 * PreparedPoint, and the great circle, i.e., |asin(N.P3)|
+	 * @param x					X component of the unit vector of Point3
+	 * @param y					Y component of the unit vector of Point3
+	 * @param z					Z component of the unit vector of Point3
+	 * @return					The perpendicular angle, expressed in radians
+	 */
+	public double perpendicularAngle(double x, double y, double z) {
+		double dot = nx*x + ny*y + nz*z;
+		/*
+		 * Clamp round off so positions on the pole of the great circle do not return NaN
+		 */
+		if(dot > 1.0)
+			dot = 1.0;
+		else if(dot < -1.0)
+			dot = -1.0;
+		return Math.abs(Math.asin(dot));
+	}
+}
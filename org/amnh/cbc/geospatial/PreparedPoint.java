@@ -0,0 +1,69 @@
+/*
+** File: PreparedPoint.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geospatial;
+
+/*
+ * A geographic position with its trigonometric values computed once. Positions that take part in many distance
+ * calculations, e.g., every location of a distance matrix, should be prepared once and then passed to the
+ * PreparedPoint methods of the SphericalFunctionEngine. This class is little more than a struct,
+ * public access is allowed to each variable to reduce the overhead of calling another function just to return a value.
+ */
+public class PreparedPoint {
+
+	/** \brief Longitude expressed in decimal degrees */
+	public final double longitude;
+	/** \brief Latitude expressed in decimal degrees */
+	public final double latitude;
+	public final double sinLatitude;
+	public final double cosLatitude;
+	/** \brief Earth centered, earth fixed unit vector of the position */
+	public final double x;
+	public final double y;
+	public final double z;
+
+	/**
+	 * Constructor
+	 * @param theLongitude		Longitude of the position, expressed in decimal degrees
+	 * @param theLatitude		Latitude of the position, expressed in decimal degrees
+	 */
+	public PreparedPoint(double theLongitude, double theLatitude) {
+		longitude = theLongitude;
+		latitude = theLatitude;
+		sinLatitude = Math.sin(Math.toRadians(theLatitude));
+		cosLatitude = Math.cos(Math.toRadians(theLatitude));
+		x = cosLatitude*Math.cos(Math.toRadians(theLongitude));
+		y = cosLatitude*Math.sin(Math.toRadians(theLongitude));
+		z = sinLatitude;
+	}
+
+	/**
+	 * Calculates the central angle between this position and a second prepared position.
+	 * @param point				The second position
+	 * @return					The central angle, expressed in radians
+	 */
+	public double centralAngle(PreparedPoint point) {
+		return SphericalFunctionEngine.centralAngle(x, y, z, point.x, point.y, point.z);
+	}
+}
@@ -43,12 +43,14 @@ package org.amnh.cbc.geospatial;
 public class SphericalFunctionEngine {
 	static final int WGS84 = 6378137;
 	private double spheroidRadius;
+	/** \brief Radians to unit multipliers for the current spheroid radius, indexed by DistanceUnit.ordinal() */
+	private double[] unitScale;
 
 	/**
 	 * Constructor, sets default spherical representation of the earth to WGS84.
 	 */
 	public SphericalFunctionEngine() {
-		spheroidRadius = WGS84;
+		this(WGS84);
 	}
 	
 	/**
@@ -56,7 +58,8 @@ public class SphericalFunctionEngine {
 	 * @param value	Radius of spherical representation of the earth.  Currently assumed to be in meeters. 
 	 */
 	public SphericalFunctionEngine(double value) {
-		spheroidRadius = value;
+		unitScale = new double[DistanceUnit.values().length];
+		setSpheroidRadius(value);
 	}
 	
 	/**
@@ -72,11 +75,25 @@ public class SphericalFunctionEngine {
 	 * @return					Initial Bearing, east of true north, from Point1 to Point2
 	 */
 	public double initialBearing(double longitudePoint1, double latitudePoint1, double longitudePoint2, double latitudePoint2, String units) {
+		DistanceUnit unit = DistanceUnit.fromAbbreviation(units);
+		if(unit == null)
+			return -9999;
+		return initialBearing(longitudePoint1, latitudePoint1, longitudePoint2, latitudePoint2, unit);
+	}
+
+	/**
+	 * Calculates the initial bearing from Point1 to Point2, see initialBearing(double, double, double, double, String).
+	 * @param units				DistanceUnit.RADIANS or DistanceUnit.DEGREES, any other unit results in -9999
+	 * @return					Initial Bearing, east of true north, from Point1 to Point2
+	 */
+	public double initialBearing(double longitudePoint1, double latitudePoint1, double longitudePoint2, double latitudePoint2, DistanceUnit units) {
+		if(!units.isAngular())
+			return -9999;
 		double p1x = Math.toRadians(longitudePoint1);
 		double p1y = Math.toRadians(latitudePoint1);
 		double p2x = Math.toRadians(longitudePoint2);
 		double p2y = Math.toRadians(latitudePoint2);
-		double distance = greatCircleDistance(longitudePoint1, latitudePoint1, longitudePoint2, latitudePoint2, "rad");
+		double distance = greatCircleDistance(longitudePoint1, latitudePoint1, longitudePoint2, latitudePoint2, DistanceUnit.RADIANS);
 		double course = Math.acos((Math.sin(p2y)-(Math.sin(p1y)*Math.cos(distance)))/(Math.cos(p1y)*Math.sin(distance)));
 		
 		/*
@@ -86,11 +103,7 @@ public class SphericalFunctionEngine {
 		if(Math.sin(p2x-p1x) < 0)
 			course = (2*Math.PI) - course;
 		
-		if(units.equalsIgnoreCase("rad"))
-			return course;
-		if(units.equalsIgnoreCase("deg"))
-			return Math.toDegrees(course);
-		return -9999;
+		return course*unitScale[units.ordinal()];
 	}
 	
 	/**
@@ -104,7 +117,7 @@ public class SphericalFunctionEngine {
 	 * @return					An array containing the coordinates of the new location, [0] = longitude, [1] = latitude, expressed in decimal degrees.
 	 */
 	public double[] calculateIntermediateGreatCirclePoints(double longitudePoint1, double latitudePoint1, double longitudePoint2, double latitudePoint2, double fraction) {
-		double distance = greatCircleDistance(longitudePoint1, latitudePoint1, longitudePoint2, latitudePoint2, "rad");
+		double distance = greatCircleDistance(longitudePoint1, latitudePoint1, longitudePoint2, latitudePoint2, DistanceUnit.RADIANS);
 		double scalarA = Math.sin((1-fraction)*distance)/Math.sin(distance);
 		double scalarB = Math.sin(fraction*distance)/Math.sin(distance);
 		double x = (scalarA*Math.cos(Math.toRadians(latitudePoint1))*Math.cos(Math.toRadians(longitudePoint1)))+(scalarB*Math.cos(Math.toRadians(latitudePoint2))*Math.cos(Math.toRadians(longitudePoint2)));
@@ -129,6 +142,19 @@ public class SphericalFunctionEngine {
 	 * @return					Great circle distance between Point3 and the great circle passing through Point1 to Point2.
 	 */
 	public double calculatePerpendicularDistance(double longitudePoint1, double latitudePoint1, double longitudePoint2, double latitudePoint2, double longitudePoint3, double latitudePoint3, String units) {
+		DistanceUnit unit = DistanceUnit.fromAbbreviation(units);
+		if(unit == null)
+			return -9999;
+		return calculatePerpendicularDistance(longitudePoint1, latitudePoint1, longitudePoint2, latitudePoint2, longitudePoint3, latitudePoint3, unit);
+	}
+
+	/**
+	 * Calculates the perpendicular distance between Point3 and the great circle passing through Point1 and Point2,
+	 * see calculatePerpendicularDistance(double, double, double, double, double, double, String).
+	 * @param units				The units of the resulting distance
+	 * @return					Great circle distance between Point3 and the great circle passing through Point1 to Point2.
+	 */
+	public double calculatePerpendicularDistance(double longitudePoint1, double latitudePoint1, double longitudePoint2, double latitudePoint2, double longitudePoint3, double latitudePoint3, DistanceUnit units) {
 		/*
 		 * Convert Point 1 (Great Circle Reference)
 		 */
@@ -177,18 +203,90 @@ public class SphericalFunctionEngine {
 		 */
 		double pDistance = Math.abs((Math.PI/2.0) - Math.acos(angleNOP3));
 		
-		if(units.equalsIgnoreCase("rad"))
-			return pDistance;
-		if(units.equalsIgnoreCase("deg"))
-			return Math.toDegrees(pDistance); 
-		if(units.equalsIgnoreCase("nm"))
-			return Math.toDegrees(pDistance)*60;
-		if(units.equalsIgnoreCase("km"))
-			return pDistance*spheroidRadius/1000;
-		if(units.equalsIgnoreCase("m"))
-			return pDistance*spheroidRadius;
-		
-		return -9999;
+		return pDistance*unitScale[units.ordinal()];
+	}
+
+	/**
+	 * Calculates the perpendicular distance between Point3 and a prepared great circle, e.g., a transect leg
+	 * that many sightings are compared to.
+	 * @param greatCircle		The great circle passing through Point1 and Point2
+	 * @param longitudePoint3	Longitude of Point3, expressed in in decimal degrees (Object of interest).
+	 * @param latitudePoint3	Latitude of Point3, expressed in in decimal degrees .
+	 * @param units				The units of the resulting distance
+	 * @return					Great circle distance between Point3 and the great circle passing through Point1 to Point2.
+	 */
+	public double calculatePerpendicularDistance(PreparedGreatCircle greatCircle, double longitudePoint3, double latitudePoint3, DistanceUnit units) {
+		return greatCircle.perpendicularAngle(longitudePoint3, latitudePoint3)*unitScale[units.ordinal()];
+	}
+
+	/**
+	 * Calculates the perpendicular distance between a prepared Point3 and a prepared great circle.
+	 * @param greatCircle		The great circle passing through Point1 and Point2
+	 * @param point3			Point3 (Object of interest)
+	 * @param units				The units of the resulting distance
+	 * @return					Great circle distance between Point3 and the great circle passing through Point1 to Point2.
+	 */
+	public double calculatePerpendicularDistance(PreparedGreatCircle greatCircle, PreparedPoint point3, DistanceUnit units) {
+		return greatCircle.perpendicularAngle(point3)*unitScale[units.ordinal()];
+	}
+
+	/**
+	 * Calculates the perpendicular distances between a batch of positions, stored as parallel arrays, and a prepared
+	 * great circle.  The units are resolved once and no objects are created while looping, but the unit vector of
+	 * each sighting is computed from its degrees; sightings compared to many legs should be prepared once and passed
+	 * to one of the other batch methods.
+	 * @param greatCircle		The great circle passing through Point1 and Point2
+	 * @param longitudePoint3	Longitudes of the sightings, expressed in in decimal degrees
+	 * @param latitudePoint3	Latitudes of the sightings, expressed in in decimal degrees
+	 * @param offset			Index of the first sighting in the input arrays
+	 * @param length			Number of sightings to process
+	 * @param units				The units of the resulting distances
+	 * @param results			Array that will receive the distances
+	 * @param resultOffset		Index in results where the distance of the first sighting is stored
+	 */
+	public void calculatePerpendicularDistance(PreparedGreatCircle greatCircle, double[] longitudePoint3, double[] latitudePoint3, int offset, int length, DistanceUnit units, double[] results, int resultOffset) {
+		double scale = unitScale[units.ordinal()];
+		for(int x = 0; x < length; x++)
+			results[resultOffset+x] = greatCircle.perpendicularAngle(longitudePoint3[offset+x], latitudePoint3[offset+x])*scale;
+	}
+
+	/**
+	 * Calculates the perpendicular distances between a batch of prepared positions and a prepared great circle, one
+	 * dot product and one asin per sighting.
+	 * @param greatCircle		The great circle passing through Point1 and Point2
+	 * @param points3			The sightings
+	 * @param offset			Index of the first sighting
+	 * @param length			Number of sightings to process
+	 * @param units				The units of the resulting distances
+	 * @param results			Array that will receive the distances
+	 * @param resultOffset		Index in results where the distance of the first sighting is stored
+	 */
+	public void calculatePerpendicularDistance(PreparedGreatCircle greatCircle, PreparedPoint[] points3, int offset, int length, DistanceUnit units, double[] results, int resultOffset) {
+		double scale = unitScale[units.ordinal()];
+		for(int x = 0; x < length; x++) {
+			PreparedPoint point3 = points3[offset+x];
+			results[resultOffset+x] = greatCircle.perpendicularAngle(point3.x, point3.y, point3.z)*scale;
+		}
+	}
+
+	/**
+	 * Calculates the perpendicular distances between a batch of positions, stored as parallel arrays of the
+	 * components of their earth centered, earth fixed unit vectors as in PreparedPoint, and a prepared great circle,
+	 * one dot product and one asin per sighting.
+	 * @param greatCircle		The great circle passing through Point1 and Point2
+	 * @param xPoint3			X components of the unit vectors of the sightings
+	 * @param yPoint3			Y components of the unit vectors of the sightings
+	 * @param zPoint3			Z components of the unit vectors of the sightings
+	 * @param offset			Index of the first sighting in the input arrays
+	 * @param length			Number of sightings to process
+	 * @param units				The units of the resulting distances
+	 * @param results			Array that will receive the distances
+	 * @param resultOffset		Index in results where the distance of the first sighting is stored
+	 */
+	public void calculatePerpendicularDistance(PreparedGreatCircle greatCircle, double[] xPoint3, double[] yPoint3, double[] zPoint3, int offset, int length, DistanceUnit units, double[] results, int resultOffset) {
+		double scale = unitScale[units.ordinal()];
+		for(int x = 0; x < length; x++)
+			results[resultOffset+x] = greatCircle.perpendicularAngle(xPoint3[offset+x], yPoint3[offset+x], zPoint3[offset+x])*scale;
 	}
 
 	/**
@@ -200,11 +298,21 @@ public class SphericalFunctionEngine {
 	 * @return
 	 */
 	public double calculateLatitude(double latitude, double distance, double bearing, String units) {
-		if(units.equalsIgnoreCase("rad"))
-			return Math.asin(Math.sin(Math.toRadians(latitude))*Math.cos(distance/spheroidRadius)+Math.cos(Math.toRadians(latitude))*Math.sin(distance/spheroidRadius)*Math.cos(Math.toRadians(bearing)));
-		else if(units.equalsIgnoreCase("deg"))
-			return Math.toDegrees(Math.asin(Math.sin(Math.toRadians(latitude))*Math.cos(distance/spheroidRadius)+Math.cos(Math.toRadians(latitude))*Math.sin(distance/spheroidRadius)*Math.cos(Math.toRadians(bearing))));
-		return -9999;
+		DistanceUnit unit = DistanceUnit.fromAbbreviation(units);
+		if(unit == null)
+			return -9999;
+		return calculateLatitude(latitude, distance, bearing, unit);
+	}
+
+	/**
+	 * Calculates the latitude of a new position, see calculateLatitude(double, double, double, String).
+	 * @param units				DistanceUnit.RADIANS or DistanceUnit.DEGREES, any other unit results in -9999
+	 * @return
+	 */
+	public double calculateLatitude(double latitude, double distance, double bearing, DistanceUnit units) {
+		if(!units.isAngular())
+			return -9999;
+		return Math.asin(Math.sin(Math.toRadians(latitude))*Math.cos(distance/spheroidRadius)+Math.cos(Math.toRadians(latitude))*Math.sin(distance/spheroidRadius)*Math.cos(Math.toRadians(bearing)))*unitScale[units.ordinal()];
 	}
 	
 	/**
@@ -217,11 +325,21 @@ public class SphericalFunctionEngine {
 	 * @return
 	 */
 	public double calculateLongitude(double longitude, double latitude, double distance, double bearing, String units) {
-		if(units.equalsIgnoreCase("rad"))
-			return mod((Math.toRadians(longitude)+Math.asin((Math.sin(Math.toRadians(bearing))*Math.sin(distance/spheroidRadius))/Math.cos(calculateLatitude(latitude, distance, bearing, "rad")))+Math.PI),(2*Math.PI))-Math.PI;
-		if(units.equalsIgnoreCase("deg"))
-			return Math.toDegrees(mod((Math.toRadians(longitude)+Math.asin((Math.sin(Math.toRadians(bearing))*Math.sin(distance/spheroidRadius))/Math.cos(calculateLatitude(latitude, distance, bearing, "rad")))+Math.PI),(2*Math.PI))-Math.PI);
-		return -9999;
+		DistanceUnit unit = DistanceUnit.fromAbbreviation(units);
+		if(unit == null)
+			return -9999;
+		return calculateLongitude(longitude, latitude, distance, bearing, unit);
+	}
+
+	/**
+	 * Calculates the longitude of a new position, see calculateLongitude(double, double, double, double, String).
+	 * @param units				DistanceUnit.RADIANS or DistanceUnit.DEGREES, any other unit results in -9999
+	 * @return
+	 */
+	public double calculateLongitude(double longitude, double latitude, double distance, double bearing, DistanceUnit units) {
+		if(!units.isAngular())
+			return -9999;
+		return (mod((Math.toRadians(longitude)+Math.asin((Math.sin(Math.toRadians(bearing))*Math.sin(distance/spheroidRadius))/Math.cos(calculateLatitude(latitude, distance, bearing, DistanceUnit.RADIANS)))+Math.PI),(2*Math.PI))-Math.PI)*unitScale[units.ordinal()];
 	}
 	
 	/**
@@ -246,20 +364,111 @@ public class SphericalFunctionEngine {
 	 * @return					Great circle distance between Point1 to Point2
 	 */
 	public double greatCircleDistance(double longitudePoint1, double latitudePoint1, double longitudePoint2, double latitudePoint2, String units) {
+		DistanceUnit unit = DistanceUnit.fromAbbreviation(units);
+		if(unit == null)
+			return -9999;
+		return greatCircleDistance(longitudePoint1, latitudePoint1, longitudePoint2, latitudePoint2, unit);
+	}
+
+	/**
+	 * Calculates the great circle distance between Point1 and Point2, see greatCircleDistance(double, double, double, double, String).
+	 * @param units 			The units of the resulting distance
+	 * @return					Great circle distance between Point1 to Point2
+	 */
+	public double greatCircleDistance(double longitudePoint1, double latitudePoint1, double longitudePoint2, double latitudePoint2, DistanceUnit units) {
 		double distance = Math.acos((Math.sin(Math.toRadians(latitudePoint1))*Math.sin(Math.toRadians(latitudePoint2)))+(Math.cos(Math.toRadians(latitudePoint1))*Math.cos(Math.toRadians(latitudePoint2))*Math.cos(Math.toRadians(longitudePoint2)-Math.toRadians(longitudePoint1))));
-		if(units.equalsIgnoreCase("rad"))
-			return distance;
-		else if(units.equalsIgnoreCase("deg"))
-			return Math.toDegrees(distance);
-		else if(units.equalsIgnoreCase("nm"))
-			return Math.toDegrees(distance)*60;
-		else if(units.equalsIgnoreCase("km"))
-			return Math.toDegrees(distance)*((2*Math.PI*spheroidRadius)/360)/1000;
-		else if(units.equalsIgnoreCase("m"))
-			return Math.toDegrees(distance)*((2*Math.PI*spheroidRadius)/360);
-		return -9999;
+		return distance*unitScale[units.ordinal()];
 	}
-	
+
+	/**
+	 * Calculates the great circle distances for a batch of Point1/Point2 pairs stored as parallel arrays. The units
+	 * are resolved once for the whole batch and no objects are created while looping, so this method should be
+	 * preferred over repeated calls to greatCircleDistance(double, double, double, double, String) when processing
+	 * large numbers of pairs.  Results are identical to those of the single pair method.
+	 *
+	 * @param longitudePoint1 	Longitudes of the start or current positions, expressed in decimal degrees.
+	 * @param latitudePoint1 	Latitudes of the start or current positions, expressed in decimal degrees.
+	 * @param longitudePoint2 	Longitudes of the destinations, expressed in decimal degrees.
+	 * @param latitudePoint2 	Latitudes of the destinations, expressed in decimal degrees.
+	 * @param offset			Index of the first pair in the input arrays.
+	 * @param length			Number of pairs to process.
+	 * @param units 			The units of the resulting distances.  Valid options are "rad", "deg", "nm", "km" and "m".
+	 * @param results			Array that will receive the distances, unknown units result in -9999 for every pair.
+	 * @param resultOffset		Index in results where the distance of the first pair is stored.
+	 */
+	public void greatCircleDistance(double[] longitudePoint1, double[] latitudePoint1, double[] longitudePoint2, double[] latitudePoint2, int offset, int length, String units, double[] results, int resultOffset) {
+		DistanceUnit unit = DistanceUnit.fromAbbreviation(units);
+		if(unit == null) {
+			for(int x = 0; x < length; x++)
+				results[resultOffset+x] = -9999;
+			return;
+		}
+		greatCircleDistance(longitudePoint1, latitudePoint1, longitudePoint2, latitudePoint2, offset, length, unit, results, resultOffset);
+	}
+
+	/**
+	 * Calculates the great circle distances for a batch of Point1/Point2 pairs stored as parallel arrays, see
+	 * greatCircleDistance(double[], double[], double[], double[], int, int, String, double[], int).
+	 * @param units 			The units of the resulting distances
+	 */
+	public void greatCircleDistance(double[] longitudePoint1, double[] latitudePoint1, double[] longitudePoint2, double[] latitudePoint2, int offset, int length, DistanceUnit units, double[] results, int resultOffset) {
+		double scale = unitScale[units.ordinal()];
+		for(int x = 0; x < length; x++) {
+			int index = offset+x;
+			double distance = Math.acos((Math.sin(Math.toRadians(latitudePoint1[index]))*Math.sin(Math.toRadians(latitudePoint2[index])))+(Math.cos(Math.toRadians(latitudePoint1[index]))*Math.cos(Math.toRadians(latitudePoint2[index]))*Math.cos(Math.toRadians(longitudePoint2[index])-Math.toRadians(longitudePoint1[index]))));
+			results[resultOffset+x] = distance*scale;
+		}
+	}
+
+	/**
+	 * Calculates the great circle distance between two prepared positions. No trigonometric functions are evaluated
+	 * for the positions themselves, so this method should be preferred when each position takes part in many calculations.
+	 * @param point1			The start or current position, Point1
+	 * @param point2			The destination, Point2
+	 * @param units 			The units of the resulting distance
+	 * @return					Great circle distance between Point1 to Point2
+	 */
+	public double greatCircleDistance(PreparedPoint point1, PreparedPoint point2, DistanceUnit units) {
+		return centralAngle(point1.x, point1.y, point1.z, point2.x, point2.y, point2.z)*unitScale[units.ordinal()];
+	}
+
+	/**
+	 * Calculates the great circle distances between one prepared position and a range of prepared positions.
+	 * @param point1			The start or current position, Point1
+	 * @param points2			The destinations
+	 * @param offset			Index of the first destination
+	 * @param length			Number of destinations to process
+	 * @param units 			The units of the resulting distances
+	 * @param results			Array that will receive the distances
+	 * @param resultOffset		Index in results where the distance to the first destination is stored
+	 */
+	public void greatCircleDistance(PreparedPoint point1, PreparedPoint[] points2, int offset, int length, DistanceUnit units, double[] results, int resultOffset) {
+		double scale = unitScale[units.ordinal()];
+		for(int x = 0; x < length; x++) {
+			PreparedPoint point2 = points2[offset+x];
+			results[resultOffset+x] = centralAngle(point1.x, point1.y, point1.z, point2.x, point2.y, point2.z)*scale;
+		}
+	}
+
+	/**
+	 * Calculates the central angle between two unit vectors.  The angle is recovered with atan2 from the length of the
+	 * cross product and the dot product, which unlike acos of the dot product alone stays accurate for nearby and
+	 * antipodal positions.
+	 * @param x1				X component of the unit vector of Point1
+	 * @param y1				Y component of the unit vector of Point1
+	 * @param z1				Z component of the unit vector of Point1
+	 * @param x2				X component of the unit vector of Point2
+	 * @param y2				Y component of the unit vector of Point2
+	 * @param z2				Z component of the unit vector of Point2
+	 * @return					The central angle between Point1 and Point2, expressed in radians
+	 */
+	public static double centralAngle(double x1, double y1, double z1, double x2, double y2, double z2) {
+		double cx = y1*z2 - z1*y2;
+		double cy = z1*x2 - x1*z2;
+		double cz = x1*y2 - y1*x2;
+		return Math.atan2(Math.sqrt(cx*cx + cy*cy + cz*cz), x1*x2 + y1*y2 + z1*z2);
+	}
+
 	/**
 	 * Translates a longitude, expressed in decimal degrees, into radians between the value of 0 and 2PI
 	 * @param longitude			Longitude to be translated into 2PI
@@ -289,6 +498,18 @@ public class SphericalFunctionEngine {
 	 */
 	public void setSpheroidRadius(double value) {
 		spheroidRadius = value;
+		for(DistanceUnit unit : DistanceUnit.values())
+			unitScale[unit.ordinal()] = unit.scale(spheroidRadius);
+	}
+
+	/**
+	 * Returns the multiplier that converts an angle, expressed in radians, into the requested unit
+	 * for the current spheroid radius.
+	 * @param units				The requested unit
+	 * @return					The radians to unit multiplier
+	 */
+	public double unitScale(DistanceUnit units) {
+		return unitScale[units.ordinal()];
 	}
 	
 	/**
@@ -0,0 +1,400 @@
+/*
+** File: UnitVectorTree.java
+** Author: Peter J. Ersts (ersts@amnh.org)
+** Creation Date: 2026-10-18
+** Revision Date: 2026-10-18
+**
+** Copyright (c) 2026, American Museum of Natural History. All rights reserved.
+**
+** This library is free software; you can redistribute it and/or
+** modify it under the terms of the GNU Library General Public
+** License as published by the Free Software Foundation; either
+** version 2 of the License, or (at your option) any later version.
+**
+** This library is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+** Library General Public License for more details.
+**
+** You should have received a copy of the GNU Library General Public
+** License along with this library; if not, write to the
+** Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+** MA 02110-1301, USA.
+**
+**/
+package org.amnh.cbc.geospatial;
+
+/*
+ * A k-d tree over the earth centered unit vectors of a set of positions, see PreparedPoint.  On the unit sphere the
+ * straight line (chord) distance c between two positions grows monotonically with their central angle a,
+ * c = 2sin(a/2), so a search for the positions within a central angle, or for the nearest positions, is a search in
+ * 3D space, where boxes can be pruned cheaply and the antimeridian and the poles need no special handling.  The tree
+ * is stored in arrays: the positions are reordered so that every node covers a contiguous range, split at its
+ * median along the widest side of its bounding box, and node n has the children 2n and 2n+1.  A tree is never
+ * modified once it has been built, so it can be searched by several threads at the same time.
+ */
+public class UnitVectorTree {
+	/** \brief Largest number of positions in a leaf */
+	private static final int LEAF_SIZE = 16;
+
+	/** \brief Caller's index of each position, in tree order */
+	private final int[] indices;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	/** \brief Bounding box of each node, minimum x, maximum x, minimum y, maximum y, minimum z and maximum z */
+	private final double[] bounds;
+
+	/**
+	 * Receives the positions found by a search
+	 */
+	public interface Visitor {
+		/**
+		 * @param index			Caller's index of the position
+		 * @param chordSquared	Squared chord distance between the position and the query
+		 */
+		public void visit(int index, double chordSquared);
+	}
+
+	/**
+	 * The nearest positions found by a search, reused from search to search.  Instances are not thread safe.
+	 */
+	public static final class Neighbours {
+		private final int[] indices;
+		private final double[] chordsSquared;
+		/** \brief Position of each neighbour in the arrays of the tree */
+		private final int[] positions;
+		/** \brief Unit vector of each neighbour, copied from the tree so callers do not have to look it up */
+		private final double[] x;
+		private final double[] y;
+		private final double[] z;
+		private int count;
+
+		/**
+		 * Constructor
+		 * @param k				Largest number of positions to find
+		 */
+		public Neighbours(int k) {
+			indices = new int[k];
+			chordsSquared = new double[k];
+			positions = new int[k];
+			x = new double[k];
+			y = new double[k];
+			z = new double[k];
+		}
+
+		/**
+		 * @return				Number of positions found, less than k if the tree does not hold enough positions
+		 */
+		public int count() {
+			return count;
+		}
+
+		/**
+		 * @param n				Rank of a position, 0 for the nearest
+		 * @return				Caller's index of the position
+		 */
+		public int index(int n) {
+			return indices[n];
+		}
+
+		/**
+		 * @param n				Rank of a position, 0 for the nearest
+		 * @return				Squared chord distance between the position and the query
+		 */
+		public double chordSquared(int n) {
+			return chordsSquared[n];
+		}
+
+		/**
+		 * @param n				Rank of a position, 0 for the nearest
+		 * @return				X component of the unit vector of the position
+		 */
+		public double x(int n) {
+			return x[n];
+		}
+
+		/**
+		 * @param n				Rank of a position, 0 for the nearest
+		 * @return				Y component of the unit vector of the position
+		 */
+		public double y(int n) {
+			return y[n];
+		}
+
+		/**
+		 * @param n				Rank of a position, 0 for the nearest
+		 * @return				Z component of the unit vector of the position
+		 */
+		public double z(int n) {
+			return z[n];
+		}
+
+		/**
+		 * @return				True if position a ranks after position b, nearer first then lower index first
+		 */
+		private boolean after(int a, int b) {
+			return chordsSquared[a] > chordsSquared[b] || (chordsSquared[a] == chordsSquared[b] && indices[a] > indices[b]);
+		}
+
+		/**
+		 * Keeps a position if it is among the k nearest seen so far, the positions form a max heap on their rank
+		 */
+		private void offer(int index, double chordSquared, int position) {
+			int n;
+			if(count < indices.length)
+				n = count++;
+			else if(chordSquared < chordsSquared[0] || (chordSquared == chordsSquared[0] && index < indices[0]))
+				n = -1;
+			else
+				return;
+			if(n >= 0) {
+				indices[n] = index;
+				chordsSquared[n] = chordSquared;
+				positions[n] = position;
+				while(n > 0 && after(n, (n-1)/2)) {
+					swap(n, (n-1)/2);
+					n = (n-1)/2;
+				}
+			}
+			else {
+				indices[0] = index;
+				chordsSquared[0] = chordSquared;
+				positions[0] = position;
+				siftDown(0, count);
+			}
+		}
+
+		private void siftDown(int n, int end) {
+			while(2*n+1 < end) {
+				int child = 2*n+1;
+				if(child+1 < end && after(child+1, child))
+					child++;
+				if(!after(child, n))
+					return;
+				swap(n, child);
+				n = child;
+			}
+		}
+
+		/**
+		 * Turns the heap into a list ordered by rank
+		 */
+		private void sort() {
+			for(int end = count-1; end > 0; end--) {
+				swap(0, end);
+				siftDown(0, end);
+			}
+		}
+
+		private void swap(int a, int b) {
+			int index = indices[a]; indices[a] = indices[b]; indices[b] = index;
+			double t = chordsSquared[a]; chordsSquared[a] = chordsSquared[b]; chordsSquared[b] = t;
+			int position = positions[a]; positions[a] = positions[b]; positions[b] = position;
+		}
+
+		/**
+		 * @return				Largest squared chord of the positions kept, infinity until k positions have been found
+		 */
+		private double limit() {
+			return count < indices.length ? Double.POSITIVE_INFINITY : chordsSquared[0];
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param theX				X component of the unit vector of every position
+	 * @param theY				Y component of the unit vector of every position
+	 * @param theZ				Z component of the unit vector of every position
+	 * @param theIndices		Indices of the positions to add to the tree, usually the valid ones
+	 */
+	public UnitVectorTree(double[] theX, double[] theY, double[] theZ, int[] theIndices) {
+		int size = theIndices.length;
+		indices = theIndices.clone();
+		x = new double[size];
+		y = new double[size];
+		z = new double[size];
+		for(int n = 0; n < size; n++) {
+			x[n] = theX[indices[n]];
+			y[n] = theY[indices[n]];
+			z[n] = theZ[indices[n]];
+		}
+		int leaves = 1;
+		while((long)leaves*LEAF_SIZE < size)
+			leaves *= 2;
+		bounds = new double[6*2*leaves];
+		if(size > 0)
+			build(1, 0, size);
+	}
+
+	/**
+	 * @return					Number of positions in the tree
+	 */
+	public int size() {
+		return indices.length;
+	}
+
+	/**
+	 * Converts a central angle into the chord that subtends it on the unit sphere
+	 * @param angle				Central angle, expressed in radians
+	 * @return					The chord, 2 for angles of PI or more
+	 */
+	public static double chord(double angle) {
+		return angle >= Math.PI ? 2.0 : 2*Math.sin(Math.max(0.0, angle)/2);
+	}
+
+	/**
+	 * Visits every position within a chord distance of a query unit vector, in no particular order
+	 * @param qx				X component of the unit vector of the query
+	 * @param qy				Y component of the unit vector of the query
+	 * @param qz				Z component of the unit vector of the query
+	 * @param chord				Largest chord distance, see chord(double)
+	 * @param visitor			Receiver of the positions found
+	 */
+	public void search(double qx, double qy, double qz, double chord, Visitor visitor) {
+		if(indices.length > 0)
+			search(1, 0, indices.length, qx, qy, qz, chord*chord, visitor);
+	}
+
+	/**
+	 * Finds the k positions nearest to a query unit vector, k being the capacity of the result.  Positions at the same
+	 * distance are ranked by index, so the result does not depend on the shape of the tree.
+	 * @param qx				X component of the unit vector of the query
+	 * @param qy				Y component of the unit vector of the query
+	 * @param qz				Z component of the unit vector of the query
+	 * @param exclude			Caller's index of a position to leave out, usually the query itself, -1 for none
+	 * @param result			Receiver of the positions found, ordered nearest first
+	 */
+	public void nearest(double qx, double qy, double qz, int exclude, Neighbours result) {
+		result.count = 0;
+		if(indices.length > 0 && result.indices.length > 0)
+			nearest(1, 0, indices.length, qx, qy, qz, exclude, result);
+		result.sort();
+		for(int n = 0; n < result.count; n++) {
+			result.x[n] = x[result.positions[n]];
+			result.y[n] = y[result.positions[n]];
+			result.z[n] = z[result.positions[n]];
+		}
+	}
+
+	private void nearest(int node, int lo, int hi, double qx, double qy, double qz, int exclude, Neighbours result) {
+		if(hi - lo <= LEAF_SIZE) {
+			for(int n = lo; n < hi; n++) {
+				if(indices[n] == exclude)
+					continue;
+				double dx = x[n] - qx, dy = y[n] - qy, dz = z[n] - qz;
+				double distance = dx*dx + dy*dy + dz*dz;
+				if(distance <= result.limit())
+					result.offer(indices[n], distance, n);
+			}
+			return;
+		}
+		/*
+		 * Visit the nearer child first so that the other one is more likely to be pruned
+		 */
+		int mid = (lo + hi) >>> 1;
+		double left = boxDistanceSquared(2*node, qx, qy, qz);
+		double right = boxDistanceSquared(2*node+1, qx, qy, qz);
+		if(left <= right) {
+			if(left <= result.limit())
+				nearest(2*node, lo, mid, qx, qy, qz, exclude, result);
+			if(right <= result.limit())
+				nearest(2*node+1, mid, hi, qx, qy, qz, exclude, result);
+		}
+		else {
+			if(right <= result.limit())
+				nearest(2*node+1, mid, hi, qx, qy, qz, exclude, result);
+			if(left <= result.limit())
+				nearest(2*node, lo, mid, qx, qy, qz, exclude, result);
+		}
+	}
+
+	private void search(int node, int lo, int hi, double qx, double qy, double qz, double limit, Visitor visitor) {
+		if(boxDistanceSquared(node, qx, qy, qz) > limit)
+			return;
+		if(hi - lo <= LEAF_SIZE) {
+			for(int n = lo; n < hi; n++) {
+				double dx = x[n] - qx, dy = y[n] - qy, dz = z[n] - qz;
+				double distance = dx*dx + dy*dy + dz*dz;
+				if(distance <= limit)
+					visitor.visit(indices[n], distance);
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		search(2*node, lo, mid, qx, qy, qz, limit, visitor);
+		search(2*node+1, mid, hi, qx, qy, qz, limit, visitor);
+	}
+
+	/**
+	 * @return					Squared distance from a point to the bounding box of a node, 0 inside it
+	 */
+	private double boxDistanceSquared(int node, double qx, double qy, double qz) {
+		int b = 6*node;
+		double dx = Math.max(0.0, Math.max(bounds[b] - qx, qx - bounds[b+1]));
+		double dy = Math.max(0.0, Math.max(bounds[b+2] - qy, qy - bounds[b+3]));
+		double dz = Math.max(0.0, Math.max(bounds[b+4] - qz, qz - bounds[b+5]));
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	private void build(int node, int lo, int hi) {
+		int b = 6*node;
+		bounds[b] = bounds[b+2] = bounds[b+4] = Double.POSITIVE_INFINITY;
+		bounds[b+1] = bounds[b+3] = bounds[b+5] = Double.NEGATIVE_INFINITY;
+		for(int n = lo; n < hi; n++) {
+			bounds[b] = Math.min(bounds[b], x[n]);
+			bounds[b+1] = Math.max(bounds[b+1], x[n]);
+			bounds[b+2] = Math.min(bounds[b+2], y[n]);
+			bounds[b+3] = Math.max(bounds[b+3], y[n]);
+			bounds[b+4] = Math.min(bounds[b+4], z[n]);
+			bounds[b+5] = Math.max(bounds[b+5], z[n]);
+		}
+		if(hi - lo <= LEAF_SIZE)
+			return;
+
+		double[] axis = x;
+		double width = bounds[b+1] - bounds[b];
+		if(bounds[b+3] - bounds[b+2] > width) {
+			axis = y;
+			width = bounds[b+3] - bounds[b+2];
+		}
+		if(bounds[b+5] - bounds[b+4] > width)
+			axis = z;
+		int mid = (lo + hi) >>> 1;
+		select(axis, lo, hi - 1, mid);
+		build(2*node, lo, mid);
+		build(2*node+1, mid, hi);
+	}
+
+	/**
+	 * Reorders the positions lo to hi (inclusive) so that position k holds the value it would hold if they were
+	 * sorted along an axis, with smaller or equal values before it and larger or equal values after it
+	 */
+	private void select(double[] axis, int lo, int hi, int k) {
+		while(hi > lo) {
+			double pivot = axis[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while(i <= j) {
+				while(axis[i] < pivot)
+					i++;
+				while(axis[j] > pivot)
+					j--;
+				if(i <= j)
+					swap(i++, j--);
+			}
+			if(k <= j)
+				hi = j;
+			else if(k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int index = indices[i]; indices[i] = indices[j]; indices[j] = index;
+		double t = x[i]; x[i] = x[j]; x[j] = t;
+		t = y[i]; y[i] = y[j]; y[j] = t;
+		t = z[i]; z[i] = z[j]; z[j] = t;
+	}
+}